@@ -0,0 +1,199 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Micro benchmarks of the engine's hot paths, with generated DAG shapes (see Dags).
+ *
+ * Every benchmark runs warm-up iterations that are thrown away, then measured
+ * iterations, and prints the mean and standard deviation of the time per operation.
+ * The value each operation computes is folded into a sink so the JIT can't drop it.
+ *
+ * Usage: java Benchmarks [group ...]
+ *   groups: register, execute, topo, cache, serialize (all of them by default)
+ * Run it with the same JVM flags each time and compare against BASELINE.md.
+ */
+public class Benchmarks {
+
+    private static final int WARMUP = 5;
+    private static final int MEASURE = 10;
+    /** everything a benchmark computes ends up here */
+    private static long sink;
+
+    /** one benchmark operation */
+    interface Body {
+        Object run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String groups = args.length == 0 ? "register execute topo cache serialize" : String.join(" ", args);
+        System.out.printf("%-44s %14s %12s%n", "benchmark", "us/op", "+-");
+        if (groups.contains("register")) {
+            register();
+        }
+        if (groups.contains("execute")) {
+            execute();
+        }
+        if (groups.contains("topo")) {
+            topo();
+        }
+        if (groups.contains("cache")) {
+            cache();
+        }
+        if (groups.contains("serialize")) {
+            serialize();
+        }
+        System.out.println("(sink " + sink + ")");
+    }
+
+    /** register_workflow of random DAGs of growing size */
+    static void register() throws Exception {
+        for (int n : new int[]{10, 1000, 100000}) {
+            Dags.Shape shape = Dags.random(n, 3, 42);
+            Engine engine = new Engine(temp(), 1 << 20);
+            /** the big one takes minutes per call on the baseline, one call is enough */
+            boolean big = n >= 100000;
+            measure("register_workflow random n=" + n, 1, big ? 0 : WARMUP, big ? 1 : MEASURE, () -> {
+                engine.register_workflow("wf", shape.operators, shape.dependencies);
+                return null;
+            });
+        }
+    }
+
+    /** execute_workflow from a fresh engine (cold caches) and from a used one (warm caches),
+     *  and execute_batch per instance */
+    static void execute() throws Exception {
+        for (int n : new int[]{10, 1000}) {
+            Dags.Shape shape = Dags.random(n, 3, 42);
+            File root = temp();
+            new Engine(root, 1 << 24).register_workflow("wf", shape.operators, shape.dependencies);
+            measure("execute_workflow cold n=" + n, 1,
+                    () -> new Engine(root, 1 << 24).execute_workflow("wf").size());
+            Engine warm = new Engine(root, 1 << 24);
+            measure("execute_workflow warm n=" + n, 1, () -> warm.execute_workflow("wf").size());
+            ArrayList<Integer> seeds = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                seeds.add(i);
+            }
+            measure("execute_batch x100 warm n=" + n, 100, () -> warm.execute_batch("wf", seeds).size());
+            measure("execute_batch x100 vectorized n=" + n, 100, () -> warm.execute_batch("wf", seeds, true).size());
+        }
+        /** one long chain of cheap operators, on a pool */
+        Dags.Shape chain = Dags.deep(1000);
+        File root = temp();
+        Engine engine = new Engine(root, 1 << 24);
+        engine.register_workflow("chain", chain.operators, chain.dependencies);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            measure("execute_workflow parallel deep n=1000", 1000, () -> engine.execute_workflow("chain", pool).size());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** topological ordering of the Graph and compiling it, on each shape */
+    static void topo() throws Exception {
+        int n = 10000;
+        for (Dags.Shape shape : new Dags.Shape[]{Dags.wide(n), Dags.deep(n), Dags.random(n, 3, 42)}) {
+            Graph graph = shape.graph();
+            measure("Graph.topologicalSort " + shape.name + " n=" + n, 1, () -> graph.topologicalSort().size());
+            measure("Graph.compile " + shape.name + " n=" + n, 1, () -> graph.compile().orderLength());
+        }
+    }
+
+    /** find-or-add over a key space sized so that about hit of the lookups hit, with each eviction policy */
+    static void cache() throws Exception {
+        int entry = 1024;
+        int capacity = 1000 * (32 + 8 + entry);
+        byte[] data = new byte[entry];
+        for (double hit : new double[]{0.5, 0.9, 0.99}) {
+            for (String policy : new String[]{"lru", "slru", "tinylfu"}) {
+                Cache cache = new Cache(capacity, policy(policy));
+                /** with a uniform key space of 1000 / hit keys, 1000 fit: hit is the steady state hit ratio */
+                int keys = (int) (1000 / hit);
+                String[] ids = new String[keys];
+                for (int i = 0; i < keys; i++) {
+                    ids[i] = String.format("op%06d", i);
+                }
+                Random random = new Random(42);
+                int ops = 100000;
+                measure("Cache find/add hit=" + hit + (policy.equals("lru") ? "" : " " + policy), ops, () -> {
+                    long found = 0;
+                    for (int i = 0; i < ops; i++) {
+                        String id = ids[random.nextInt(keys)];
+                        if (cache.find(id) != null) {
+                            found++;
+                        } else {
+                            cache.add(id, data);
+                        }
+                    }
+                    return found;
+                });
+                System.out.println("    " + cache);
+            }
+        }
+    }
+
+    private static EvictionPolicy policy(String name) {
+        switch (name) {
+            case "slru":
+                return new SlruPolicy();
+            case "tinylfu":
+                return new TinyLfuPolicy();
+            default:
+                return new LruPolicy();
+        }
+    }
+
+    /** round trip of a registered workflow through Java serialization and through its Codec */
+    static void serialize() throws Exception {
+        for (int n : new int[]{10, 1000}) {
+            Dags.Shape shape = Dags.random(n, 3, 42);
+            Workflow wf = new Workflow("wf", new ArrayList<>(shape.operators.keySet()), shape.graph());
+            measure("serialize+deserialize Workflow n=" + n, 1,
+                    () -> Util.deserialize(Util.serialize(wf), Workflow.class).workflowId);
+            measure("encode+decode Workflow n=" + n, 1,
+                    () -> Util.decode(Util.encode(wf), Workflow.class).workflowId);
+        }
+    }
+
+    /** run body in warm-up and measured iterations; each call counts for ops operations */
+    static void measure(String name, int ops, Body body) throws Exception {
+        measure(name, ops, WARMUP, MEASURE, body);
+    }
+
+    static void measure(String name, int ops, int warmup, int iterations, Body body) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            consume(body.run());
+        }
+        double[] us = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            consume(body.run());
+            us[i] = (System.nanoTime() - start) / 1000.0 / ops;
+        }
+        double mean = 0;
+        for (double t : us) {
+            mean += t / iterations;
+        }
+        double variance = 0;
+        for (double t : us) {
+            variance += (t - mean) * (t - mean) / iterations;
+        }
+        System.out.printf("%-44s %14.3f %12.3f%n", name, mean, Math.sqrt(variance));
+    }
+
+    private static void consume(Object value) {
+        sink += value == null ? 0 : value.hashCode();
+    }
+
+    private static File temp() throws IOException {
+        File root = Files.createTempDirectory("bench").toFile();
+        root.deleteOnExit();
+        return root;
+    }
+}
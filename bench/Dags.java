@@ -0,0 +1,78 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Synthetic workflow shapes for the benchmarks.
+ * Every shape has n operators named "op0" .. "op(n-1)", all running the same Sum code.
+ */
+public class Dags {
+
+    /** Sum of the integer payloads of the inputs, plus one */
+    public static class Sum implements Callable<Integer> {
+        @Override
+        public Integer call(ArrayList<Result> input) {
+            int sum = 1;
+            for (Result r : input) {
+                sum += (int) r.getPayload();
+            }
+            return sum;
+        }
+    }
+
+    /** a workflow shape: its operators and its dependencies */
+    public static class Shape {
+        public final String name;
+        public final HashMap<String, Callable> operators = new HashMap<>();
+        public final ArrayList<Tuple> dependencies = new ArrayList<>();
+
+        Shape(String name, int n) {
+            this.name = name;
+            Sum code = new Sum();
+            for (int i = 0; i < n; i++) {
+                operators.put("op" + i, code);
+            }
+        }
+
+        /** the same vertices and edges as a Graph, vertex i being "op" + i */
+        public Graph graph() {
+            Graph graph = new Graph(operators.size());
+            for (Tuple t : dependencies) {
+                graph.addEdge(Integer.parseInt(t.x.substring(2)), Integer.parseInt(t.y.substring(2)));
+            }
+            return graph;
+        }
+    }
+
+    /** one source fanning out to n - 2 independent operators that all feed one sink */
+    public static Shape wide(int n) {
+        Shape shape = new Shape("wide", n);
+        for (int i = 1; i < n - 1; i++) {
+            shape.dependencies.add(new Tuple("op0", "op" + i));
+            shape.dependencies.add(new Tuple("op" + i, "op" + (n - 1)));
+        }
+        return shape;
+    }
+
+    /** a single chain op0 -> op1 -> ... -> op(n-1) */
+    public static Shape deep(int n) {
+        Shape shape = new Shape("deep", n);
+        for (int i = 1; i < n; i++) {
+            shape.dependencies.add(new Tuple("op" + (i - 1), "op" + i));
+        }
+        return shape;
+    }
+
+    /** every vertex depends on up to degree random earlier vertices, the same DAG for the same seed */
+    public static Shape random(int n, int degree, long seed) {
+        Shape shape = new Shape("random", n);
+        Random random = new Random(seed);
+        for (int i = 1; i < n; i++) {
+            int edges = 1 + random.nextInt(degree);
+            for (int e = 0; e < edges; e++) {
+                shape.dependencies.add(new Tuple("op" + random.nextInt(i), "op" + i));
+            }
+        }
+        return shape;
+    }
+}
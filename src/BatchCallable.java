@@ -0,0 +1,18 @@
+import java.util.ArrayList;
+
+/**
+ * A Callable that can also run many instances of itself in one call, for
+ * Engine.execute_batch with vectorize: the per-call overhead (setting up a model,
+ * a connection, a buffer) is then paid once per batch instead of once per instance.
+ */
+public interface BatchCallable<T> extends Callable<T> {
+
+    /** call for each input list of inputs, the outputs in the same order */
+    default ArrayList<T> call_batch(ArrayList<ArrayList<Result>> inputs) throws Exception {
+        ArrayList<T> ret = new ArrayList<>(inputs.size());
+        for(ArrayList<Result> input : inputs){
+            ret.add(call(input));
+        }
+        return ret;
+    }
+}
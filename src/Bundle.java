@@ -0,0 +1,135 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A packed workflow: the encoded workflow and the code of all of its operators
+ * in one file, read through a single memory mapping.
+ *
+ * Layout (big endian):
+ *   int MAGIC, int entry count,
+ *   entry count x (short key length, key in UTF-8, long offset, int length),
+ *   the entries' bytes.
+ * Offsets are from the start of the file. An entry is only sliced out of the mapping
+ * when it is asked for, so a cold load is one open and one mmap however many
+ * operators the workflow has.
+ */
+public class Bundle {
+
+    /** "WFB1" */
+    private static final int MAGIC = 0x57464231;
+
+    /** the mapping of the file, or the bytes of a bundle not written yet */
+    private final ByteBuffer mapped;
+    /** Dictionary {key : (offset, length)} */
+    private final HashMap<String, long[]> index;
+
+    private Bundle(ByteBuffer mapped){
+        this.mapped = mapped;
+        this.index = new HashMap<>();
+        if(mapped.getInt() != MAGIC){
+            throw new IllegalArgumentException("not a workflow bundle");
+        }
+        int count = mapped.getInt();
+        for(int i = 0; i < count; i++){
+            byte[] key = new byte[mapped.getShort()];
+            mapped.get(key);
+            long offset = mapped.getLong();
+            int length = mapped.getInt();
+            index.put(new String(key, StandardCharsets.UTF_8), new long[]{offset, length});
+        }
+    }
+
+    /** write the entries, in iteration order, into file
+     *
+     * @param file : the bundle file, replaced if it exists
+     * @param entries : Dictionary {key : serialized bytes}
+     */
+    static void write(File file, Map<String, byte[]> entries){
+        Util.writeContents(file, pack(entries));
+    }
+
+    /** the bytes of a bundle file holding the entries, in iteration order */
+    static byte[] pack(Map<String, byte[]> entries){
+        byte[][] keys = new byte[entries.size()][];
+        int header = 8;
+        int i = 0;
+        for(String key : entries.keySet()){
+            keys[i] = key.getBytes(StandardCharsets.UTF_8);
+            header += 2 + keys[i].length + 8 + 4;
+            i++;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            long offset = header;
+            i = 0;
+            for(byte[] data : entries.values()){
+                out.writeShort(keys[i].length);
+                out.write(keys[i]);
+                out.writeLong(offset);
+                out.writeInt(data.length);
+                offset += data.length;
+                i++;
+            }
+            for(byte[] data : entries.values()){
+                out.write(data);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** map the bundle file and read its index, the entries themselves are not read */
+    static Bundle open(File file){
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE){
+                throw new IllegalArgumentException("bundle too large to map");
+            }
+            return new Bundle(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** a bundle over the bytes pack returned */
+    static Bundle wrap(byte[] packed){
+        return new Bundle(ByteBuffer.wrap(packed));
+    }
+
+    /** whether the bundle has an entry for key */
+    public boolean contains(String key){
+        return index.containsKey(key);
+    }
+
+    /** a read-only view of the entry key inside the mapping, null if it is absent */
+    public ByteBuffer slice(String key){
+        long[] entry = index.get(key);
+        if(entry == null){
+            return null;
+        }
+        ByteBuffer view = mapped.duplicate();
+        view.position((int) entry[0]);
+        view.limit((int) (entry[0] + entry[1]));
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /** decode the entry key straight from the mapping, null if it is absent */
+    public <T extends Serializable> T readObject(String key, Class<T> expectedClass){
+        ByteBuffer view = slice(key);
+        if(view == null){
+            return null;
+        }
+        return Util.decode(view, expectedClass);
+    }
+}
@@ -1,36 +1,86 @@
-import java.util.Comparator;
-import java.util.Date;
-import java.util.PriorityQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Byte-budget cache of serialized workflows/operators, safe to use from many threads.
+ * The ids are spread over STRIPES independently locked segments so lookups of
+ * different ids do not contend, and the remaining capacity is an atomic counter.
+ * Which blobs stay once the budget is exceeded is up to its EvictionPolicy.
+ */
 public class Cache {
     public final int capacity;
-    public int remaining_capacity;
-    public PriorityQueue<blob> cache;
+    private final AtomicInteger remaining_capacity;
+    public final EvictionPolicy policy;
+    /** guards the policy; always taken before a stripe lock */
+    private final ReentrantLock policy_lock = new ReentrantLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
 
-    /** initialize a Cache with capacity bytes */
+    /** hits and misses not told to the policy yet, in the order they happened */
+    private final ConcurrentLinkedQueue<access> accesses = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger buffered = new AtomicInteger();
+    /** past this many buffered accesses, a lookup waits for the policy and drains them */
+    private static final int MAX_BUFFERED = 1024;
+
+    private static final int STRIPES = 16;
+    private final stripe[] stripes;
+
+    /** initialize a Cache with capacity bytes, evicting the least recently used blobs */
     public Cache(int capacity){
+        this(capacity, new LruPolicy());
+    }
+
+    /** initialize a Cache with capacity bytes and the given eviction policy */
+    public Cache(int capacity, EvictionPolicy policy){
         this.capacity = capacity;
-        this.remaining_capacity = capacity;
-        cache = new PriorityQueue<>();
+        this.remaining_capacity = new AtomicInteger(capacity);
+        this.policy = policy;
+        policy.set_capacity(capacity);
+        stripes = new stripe[STRIPES];
+        for(int i = 0; i < STRIPES; i++){
+            stripes[i] = new stripe();
+        }
     }
 
-    /** Cache eviction policy(Least Recent Used):
+    /** Cache eviction policy:
      * If the cache is full and not able to stored the next workflow/operator,
-     * we evicts the cache(s) that is/are least recently use.
-     * The implementation includes a Priority Queue that polls that blob
-     * using Date as comparator
+     * we evict the blobs the policy chooses until it fits again (the new one may be
+     * chosen as well, which is how a policy refuses to admit it).
+     * Called with policy_lock held.
      *
      * @Design_trade_off:
      *  My design ideology is that because some workflows are executed on a daily or weekly basis
-     *  so it will be important keep the one that is executed recently
-     *  The potential alternative is Least Frequent Used Eviction policy, those that used once or twice
-     *  should be evicted more recently
+     *  so it will be important keep the one that is executed recently (LruPolicy, the default).
+     *  The alternative is a frequency aware policy: those that used once or twice
+     *  should be evicted sooner (SlruPolicy, TinyLfuPolicy), so that one large cold
+     *  workflow can't flush the hot operators
      *
      */
-    private void cache_eviction(int memory_size){
-        while(memory_size <= remaining_capacity){
-            blob b = cache.poll();
-            remaining_capacity += b.sizeof();
+    private void cache_eviction(){
+        drain();
+        while(remaining_capacity.get() < 0){
+            String victim = policy.evict();
+            if(victim == null){
+                return;
+            }
+            stripe s = stripe_of(victim);
+            s.lock.lock();
+            try {
+                blob b = s.blobs.remove(victim);
+                if(b != null){
+                    remaining_capacity.addAndGet(b.sizeof());
+                    evictions.increment();
+                }
+            } finally {
+                s.lock.unlock();
+            }
         }
     }
 
@@ -40,13 +90,30 @@ public class Cache {
      * @param serialized_data : the serializable data that stored
      */
     public void add(String id, byte[] serialized_data){
-        int memory_size = id.getBytes().length + serialized_data.length;
-        if(remaining_capacity - memory_size <= 0){
-            cache_eviction(memory_size);
-        }
         blob b = new blob(id,serialized_data);
-        cache.add(b);
-        remaining_capacity = remaining_capacity - memory_size;
+        int memory_size = b.sizeof();
+        if(memory_size > capacity){
+            /** never fits, caching it would only flush everything else */
+            remove(id);
+            return;
+        }
+        stripe s = stripe_of(id);
+        policy_lock.lock();
+        try {
+            s.lock.lock();
+            try {
+                blob old = s.blobs.put(id, b);
+                remaining_capacity.addAndGet(old == null ? -memory_size : old.sizeof() - memory_size);
+            } finally {
+                s.lock.unlock();
+            }
+            /** the accesses that happened before the insert reach the policy first */
+            drain();
+            policy.inserted(id, memory_size);
+            cache_eviction();
+        } finally {
+            policy_lock.unlock();
+        }
     }
 
     /** find the workflow/ operator in the cache, return null if it's a cache miss
@@ -54,12 +121,44 @@ public class Cache {
      * @param id : the id of the operation/ workflow
      */
     public byte[] find(String id){
-        for(blob b : cache){
-            if (b.id.equals(id)){
-                return b.serializable_data;
+        stripe s = stripe_of(id);
+        blob b;
+        s.lock.lock();
+        try {
+            b = s.blobs.get(id);
+            if(b != null){
+                b.uses++;
+            }
+        } finally {
+            s.lock.unlock();
+        }
+        (b == null ? misses : hits).increment();
+        record(id, b != null);
+        return b == null ? null : b.serializable_data;
+    }
+
+    /** remove the workflow/ operator from the cache, e.g. when it is registered again
+     *
+     * @param id : the id of the operation/ workflow
+     */
+    public void remove(String id){
+        stripe s = stripe_of(id);
+        policy_lock.lock();
+        try {
+            s.lock.lock();
+            try {
+                blob b = s.blobs.remove(id);
+                if(b != null){
+                    remaining_capacity.addAndGet(b.sizeof());
+                }
+            } finally {
+                s.lock.unlock();
             }
+            drain();
+            policy.removed(id);
+        } finally {
+            policy_lock.unlock();
         }
-        return null;
     }
 
     /** update the workflow or operator based on current time
@@ -67,42 +166,176 @@ public class Cache {
      * @param id : the id of the operation/ workflow
      */
     public void update(String id){
-        for(blob b:cache){
-            if(b.id.equals(id)){
-                b.date = new Date(System.currentTimeMillis());
+        /** a use of the blob as far as the policy is concerned, not a lookup */
+        stripe s = stripe_of(id);
+        s.lock.lock();
+        try {
+            blob b = s.blobs.get(id);
+            if(b != null){
+                b.uses++;
             }
+        } finally {
+            s.lock.unlock();
+        }
+        record(id, true);
+    }
+
+    /** tell the policy about a hit or a miss of id. Lookups don't wait for the policy:
+     *  the access is buffered and delivered, in order, by whoever holds policy_lock next,
+     *  at the latest before its next decision. Only a lookup that finds the buffer
+     *  full waits, so that it can't grow without bound */
+    private void record(String id, boolean hit){
+        accesses.add(new access(id, hit));
+        if(buffered.incrementAndGet() >= MAX_BUFFERED){
+            policy_lock.lock();
+        }else if(!policy_lock.tryLock()){
+            return;
+        }
+        try {
+            drain();
+        } finally {
+            policy_lock.unlock();
         }
     }
 
+    /** deliver the buffered accesses to the policy. Called with policy_lock held */
+    private void drain(){
+        access a;
+        while((a = accesses.poll()) != null){
+            buffered.decrementAndGet();
+            if(a.hit){
+                policy.accessed(a.id);
+            }else {
+                policy.missed(a.id);
+            }
+        }
+    }
+
+    /** the limit blobs used the most since they were added, most used first
+     *
+     * @return Dictionary {id : (number of uses, bytes charged)}, see CacheManifest
+     */
+    public LinkedHashMap<String, long[]> hottest(int limit){
+        ArrayList<blob> all = new ArrayList<>();
+        ArrayList<Long> uses = new ArrayList<>();
+        for(stripe s : stripes){
+            s.lock.lock();
+            try {
+                for(blob b : s.blobs.values()){
+                    all.add(b);
+                    uses.add(b.uses);
+                }
+            } finally {
+                s.lock.unlock();
+            }
+        }
+        Integer[] order = new Integer[all.size()];
+        for(int i = 0; i < order.length; i++){
+            order[i] = i;
+        }
+        /** a snapshot of the counts, they keep changing */
+        Arrays.sort(order, (a, b) -> Long.compare(uses.get(b), uses.get(a)));
+        LinkedHashMap<String, long[]> ret = new LinkedHashMap<>();
+        for(int i = 0; i < Math.min(limit, order.length); i++){
+            blob b = all.get(order[i]);
+            ret.put(b.id, new long[]{uses.get(order[i]), b.sizeof()});
+        }
+        return ret;
+    }
+
+    /** number of bytes that can still be added without eviction */
+    public int remaining_capacity(){
+        return remaining_capacity.get();
+    }
+
+    /** number of find calls that found their blob, and that did not */
+    public long hits(){
+        return hits.sum();
+    }
+
+    public long misses(){
+        return misses.sum();
+    }
+
+    /** number of blobs dropped to stay within capacity, refused ones included */
+    public long evictions(){
+        return evictions.sum();
+    }
+
+    /** hits / (hits + misses), 0 before the first lookup */
+    public double hit_ratio(){
+        long h = hits(), m = misses();
+        return h + m == 0 ? 0 : (double) h / (h + m);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: hit ratio %.3f (%d hits, %d misses), %d evictions",
+                policy.name(), hit_ratio(), hits(), misses(), evictions());
+    }
+
     /** flush the cache
      *
      */
     public void flush(){
-        this.remaining_capacity = capacity;
-        this.cache = new PriorityQueue<>();
+        policy_lock.lock();
+        try {
+            for(stripe s : stripes){
+                s.lock.lock();
+                try {
+                    for(blob b : s.blobs.values()){
+                        remaining_capacity.addAndGet(b.sizeof());
+                    }
+                    s.blobs.clear();
+                } finally {
+                    s.lock.unlock();
+                }
+            }
+            drain();
+            policy.clear();
+        } finally {
+            policy_lock.unlock();
+        }
+    }
+
+    private stripe stripe_of(String id){
+        return stripes[(id.hashCode() & 0x7fffffff) % STRIPES];
+    }
+
+    /** one independently locked segment */
+    private class stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final HashMap<String, blob> blobs = new HashMap<>();
     }
 
-    /** blob class to put into the priority queue*/
-    private class blob implements Comparable<blob>{
-        public Date date;
+    /** a hit or a miss waiting for the policy */
+    private static class access {
+        final String id;
+        final boolean hit;
+
+        access(String id, boolean hit){
+            this.id = id;
+            this.hit = hit;
+        }
+    }
+
+    /** blob class to put into the cache*/
+    private class blob {
         public String id;
         public byte[] serializable_data;
+        /** number of finds and updates that hit it, guarded by the stripe lock */
+        public long uses;
 
         public blob(String id, byte[]serializable_data){
             this.id = id;
             this.serializable_data = serializable_data;
-            this.date = new Date(System.currentTimeMillis());
         }
 
         public int sizeof(){
-            /** size of date + id + serializeable data */
+            /** size of the entry + id + serializeable data,
+             * the only formula used to charge and refund remaining_capacity */
             return 32 + id.getBytes().length + serializable_data.length;
         }
 
-        @Override
-        public int compareTo(blob o) {
-            return this.date.compareTo(o.date);
-        }
-
     }
 }
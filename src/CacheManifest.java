@@ -0,0 +1,87 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The hottest keys of an engine's byte Cache, saved so that the next engine on the
+ * same root can load them before they are asked for (see Engine.warm_up).
+ *
+ * Layout (big endian):
+ *   int MAGIC, int entry count,
+ *   entry count x (short key length, key in UTF-8, long uses, int bytes charged),
+ * hottest first. A few hundred bytes for a thousand operators, and replaced
+ * atomically: a reader sees the previous manifest or the new one.
+ */
+public class CacheManifest {
+
+    /** "WCM1" */
+    private static final int MAGIC = 0x57434d31;
+
+    /** write the entries, in iteration order, into file
+     *
+     * @param entries : Dictionary {key : (uses, bytes)}, as Cache.hottest returns them
+     */
+    static void write(File file, Map<String, long[]> entries){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for(Map.Entry<String, long[]> entry : entries.entrySet()){
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeShort(key.length);
+                out.write(key);
+                out.writeLong(entry.getValue()[0]);
+                out.writeInt((int) entry.getValue()[1]);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        File temporary = null;
+        try {
+            /** unique, engines sharing a root may save at the same time */
+            temporary = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(),
+                    "." + file.getName() + ".", ".tmp").toFile();
+            Util.writeContents(temporary, bytes.toByteArray());
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | IllegalArgumentException excp) {
+            if(temporary != null){
+                temporary.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** the entries of the manifest file, hottest first; empty if there is none or it is not one */
+    static LinkedHashMap<String, long[]> read(File file){
+        LinkedHashMap<String, long[]> entries = new LinkedHashMap<>();
+        if(!file.isFile()){
+            return entries;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Util.readContents(file));
+        try {
+            if(in.getInt() != MAGIC){
+                return entries;
+            }
+            int count = in.getInt();
+            for(int i = 0; i < count; i++){
+                byte[] key = new byte[in.getShort()];
+                in.get(key);
+                long uses = in.getLong();
+                long size = in.getInt();
+                entries.put(new String(key, StandardCharsets.UTF_8), new long[]{uses, size});
+            }
+        } catch (BufferUnderflowException excp) {
+            /** truncated: what was read is still a list of hot keys */
+        }
+        return entries;
+    }
+}
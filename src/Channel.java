@@ -0,0 +1,180 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded FIFO of records between two stages of a streaming run, see StreamingCallable.
+ *
+ * The producer puts records and closes the channel when it is done, the consumer
+ * takes them until take returns null. put blocks while capacity records are
+ * waiting, so a fast producer is held back by a slow consumer (backpressure) and a
+ * channel never holds more than capacity records.
+ * A channel has one producer and one consumer; records must not be null.
+ */
+public class Channel {
+
+    public final int capacity;
+    private final ArrayDeque<Object> records = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition not_full = lock.newCondition();
+    private final Condition not_empty = lock.newCondition();
+    private boolean closed;
+    /** the run failed: both ends give up */
+    private boolean aborted;
+    /** the consumer finished without reading everything: further records are dropped */
+    private boolean discarded;
+
+    public Channel(int capacity){
+        if(capacity < 1){
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /** append record, waiting for room if the channel is full */
+    public void put(Object record) throws InterruptedException {
+        if(record == null){
+            throw new NullPointerException("records can't be null");
+        }
+        lock.lockInterruptibly();
+        try {
+            while(records.size() >= capacity && !aborted && !discarded){
+                not_full.await();
+            }
+            if(aborted){
+                throw new CancellationException("the run was aborted");
+            }
+            if(closed){
+                throw new IllegalStateException("put on a closed channel");
+            }
+            if(discarded){
+                return;
+            }
+            records.addLast(record);
+            not_empty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** the next record, waiting for one if the channel is empty; null once it is closed and drained */
+    public Object take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while(records.isEmpty() && !closed && !aborted){
+                not_empty.await();
+            }
+            if(aborted){
+                throw new CancellationException("the run was aborted");
+            }
+            Object record = records.pollFirst();
+            not_full.signal();
+            return record;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** no more records will be put */
+    public void close(){
+        lock.lock();
+        try {
+            closed = true;
+            not_empty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** the consumer is done: drop the records left and every record put from now on */
+    void discard(){
+        lock.lock();
+        try {
+            discarded = true;
+            records.clear();
+            not_full.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** drop the records and make every waiting or later put/take throw CancellationException */
+    void abort(){
+        lock.lock();
+        try {
+            aborted = true;
+            records.clear();
+            not_full.signalAll();
+            not_empty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** take every remaining record */
+    ArrayList<Object> drain() throws InterruptedException {
+        ArrayList<Object> ret = new ArrayList<>();
+        for(Object record = take(); record != null; record = take()){
+            ret.add(record);
+        }
+        return ret;
+    }
+
+    /** a closed channel holding the records of payload */
+    static Channel materialized(Object payload) throws InterruptedException {
+        Channel channel = new Channel(Integer.MAX_VALUE);
+        emit(payload, channel);
+        channel.close();
+        return channel;
+    }
+
+    /** put the records of payload into channel: each record of a Records, else payload itself */
+    static void emit(Object payload, Channel channel) throws InterruptedException {
+        if(payload instanceof Records){
+            for(Object record : ((Records) payload).records){
+                channel.put(record);
+            }
+        }else if(payload != null){
+            channel.put(payload);
+        }
+    }
+
+    /** the output of a stage with several consumers: every record and the close go to each of them */
+    static class Tee extends Channel {
+
+        private final ArrayList<Channel> targets;
+
+        Tee(ArrayList<Channel> targets){
+            super(1);
+            this.targets = targets;
+        }
+
+        @Override
+        public void put(Object record) throws InterruptedException {
+            for(Channel target : targets){
+                target.put(record);
+            }
+        }
+
+        @Override
+        public Object take() {
+            throw new UnsupportedOperationException("a Tee is only written to");
+        }
+
+        @Override
+        public void close() {
+            for(Channel target : targets){
+                target.close();
+            }
+        }
+
+        @Override
+        void abort() {
+            for(Channel target : targets){
+                target.abort();
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * The log of the operators a run of a workflow has completed, so that the next run
+ * after a failure (an operator threw, the process died) resumes where it stopped.
+ *
+ * Layout (big endian):
+ *   int MAGIC, short fingerprint length, fingerprint in UTF-8,
+ *   records: int length, int CRC32 of the body, body = int vertex + serialized Result.
+ * The fingerprint identifies the workflow the results belong to: a log written for
+ * another version of the workflow is started over. A record torn by a crash fails its
+ * length or checksum; it and whatever follows are cut off.
+ *
+ * Appends are batched: records are buffered and written with one write and one fsync
+ * at most every SYNC_INTERVAL_NANOS, so cheap operators share a sync. An operator that
+ * ran longer than that is synced as soon as it completes, and sync() is called when
+ * the run fails, so only the results of the last moments before a crash can be lost.
+ *
+ * The log is locked while a run uses it; a second run of the same workflow does not get one.
+ */
+class Checkpoint implements AutoCloseable {
+
+    /** "WCK1" */
+    private static final int MAGIC = 0x57434b31;
+    static final long SYNC_INTERVAL_NANOS = 50_000_000L;
+
+    private final File file;
+    private final FileChannel channel;
+    private final FileLock lock;
+    /** the run using the log, told when it can't be written */
+    private final RunTrace trace;
+    /** Dictionary {vertex : (offset, length) of its serialized Result} */
+    private final HashMap<Integer, long[]> index = new HashMap<>();
+    /** records not written yet */
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    /** where the buffered records go */
+    private long end;
+    private long last_sync = System.nanoTime();
+
+    private Checkpoint(File file, FileChannel channel, FileLock lock, String fingerprint, RunTrace trace) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.lock = lock;
+        this.trace = trace;
+        byte[] expected = fingerprint.getBytes(StandardCharsets.UTF_8);
+        if(!read_header(expected)){
+            /** no log yet, or one of another version of the workflow */
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(6 + expected.length);
+            header.putInt(MAGIC).putShort((short) expected.length).put(expected).flip();
+            channel.write(header, 0);
+            channel.force(false);
+            end = header.capacity();
+            return;
+        }
+        read_records();
+        /** cut off a torn record */
+        channel.truncate(end);
+    }
+
+    /** open, or start, the log file of the workflow whose encoding hashes to fingerprint,
+     *  for the run trace reports to; null if another run holds it */
+    static Checkpoint open(File file, String fingerprint, RunTrace trace){
+        file.getParentFile().mkdirs();
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileLock lock = channel.tryLock();
+            if(lock == null){
+                channel.close();
+                return null;
+            }
+            return new Checkpoint(file, channel, lock, fingerprint, trace);
+        } catch (OverlappingFileLockException excp) {
+            close_quietly(channel);
+            return null;
+        } catch (IOException excp) {
+            close_quietly(channel);
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** whether the header is there and names fingerprint */
+    private boolean read_header(byte[] expected) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(6 + expected.length);
+        if(channel.read(header, 0) < header.capacity()){
+            return false;
+        }
+        header.flip();
+        if(header.getInt() != MAGIC || header.getShort() != expected.length){
+            return false;
+        }
+        byte[] fingerprint = new byte[expected.length];
+        header.get(fingerprint);
+        end = header.capacity();
+        return Arrays.equals(fingerprint, expected);
+    }
+
+    /** index the records up to the first one that is incomplete or corrupt */
+    private void read_records() throws IOException {
+        long size = channel.size();
+        ByteBuffer head = ByteBuffer.allocate(8);
+        while(end + 8 <= size){
+            head.clear();
+            channel.read(head, end);
+            head.flip();
+            int length = head.getInt();
+            int crc = head.getInt();
+            if(length < 4 || end + 8 + length > size){
+                return;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            channel.read(body, end + 8);
+            if(crc32(body.array(), 0, length) != crc){
+                return;
+            }
+            body.flip();
+            index.put(body.getInt(), new long[]{end + 12, length - 4});
+            end += 8 + length;
+        }
+    }
+
+    /** whether the result of vertex node is in the log */
+    boolean has(int node){
+        return index.containsKey(node);
+    }
+
+    /** the number of results in the log */
+    int size(){
+        return index.size();
+    }
+
+    /** the logged result of vertex node */
+    Result get(int node){
+        long[] entry = index.get(node);
+        ByteBuffer data = ByteBuffer.allocate((int) entry[1]);
+        try {
+            if(entry[0] >= end){
+                sync();
+            }
+            channel.read(data, entry[0]);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return Util.deserialize(data.array(), Result.class);
+    }
+
+    /** log the result of vertex node; written once the batch is due */
+    void append(int node, Result result) throws IOException {
+        byte[] data = Util.serialize(result);
+        byte[] body = ByteBuffer.allocate(4 + data.length).putInt(node).put(data).array();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(body.length);
+        out.writeInt(crc32(body, 0, body.length));
+        out.write(body);
+        long at = end + buffer.size() - data.length;
+        index.put(node, new long[]{at, data.length});
+        if(System.nanoTime() - last_sync >= SYNC_INTERVAL_NANOS){
+            sync();
+        }
+    }
+
+    /** write the buffered records and force them to disk */
+    void sync() throws IOException {
+        if(buffer.size() > 0){
+            ByteBuffer records = ByteBuffer.wrap(buffer.toByteArray());
+            while(records.hasRemaining()){
+                end += channel.write(records, end);
+            }
+            buffer.reset();
+            channel.force(false);
+        }
+        last_sync = System.nanoTime();
+    }
+
+    /** the run completed: it won't be resumed. The file is deleted before the lock is
+     *  released, so that a run opening the log right after gets a new one */
+    void discard(){
+        buffer.reset();
+        file.delete();
+        release();
+    }
+
+    @Override
+    public void close(){
+        try {
+            sync();
+        } catch (IOException excp) {
+            /** the run goes on: it only loses the results that were not written */
+            trace.checkpoint_failed(excp);
+        }
+        release();
+    }
+
+    private void release(){
+        try {
+            lock.release();
+        } catch (IOException excp) {
+            /** closing the channel releases it as well */
+        }
+        close_quietly(channel);
+    }
+
+    private static void close_quietly(FileChannel channel){
+        if(channel == null){
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException excp) {
+            /** nothing left to do with it */
+        }
+    }
+
+    private static int crc32(byte[] data, int offset, int length){
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,20 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A binary format for one class, used by Util.encode / Util.decode in place of
+ * Java serialization once it is registered with Util.register_codec.
+ *
+ * Every encoding starts with a header of the codec's own, so that data written
+ * by Java serialization (or by another version of the codec) is told apart and
+ * still read the way it was written.
+ */
+public interface Codec<T> {
+
+    byte[] encode(T value);
+
+    /** whether in starts with this codec's header; must not move the position of in */
+    boolean recognizes(ByteBuffer in);
+
+    /** read one value from in, which starts with this codec's header */
+    T decode(ByteBuffer in);
+}
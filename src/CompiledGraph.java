@@ -0,0 +1,143 @@
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Immutable, execution-ready form of a Graph, built once when the workflow is registered.
+ *
+ * Edges are stored CSR style: the successors of vertex v are
+ * successors[successorOffsets[v] .. successorOffsets[v + 1]) and its dependencies
+ * (the vertices v depends on) are dependencies[dependencyOffsets[v] .. dependencyOffsets[v + 1]).
+ * Every lookup is O(1) on primitive arrays, and the topological order is computed once.
+ */
+public class CompiledGraph implements Serializable {
+
+    private final int vertexCount;
+    private final int[] successorOffsets;
+    private final int[] successors;
+    private final int[] dependencyOffsets;
+    private final int[] dependencies;
+    /** topological order of the vertices, same order as Graph.iterator() */
+    private final int[] order;
+
+    /** Compiles the V vertices and E edges FROM[i] -> TO[i] in O(V + E).
+     *  Edges are given in the order Graph stores them (by source vertex, then insertion) */
+    CompiledGraph(int vertexCount, int[] from, int[] to) {
+        this.vertexCount = vertexCount;
+        int edgeCount = from.length;
+
+        successorOffsets = new int[vertexCount + 1];
+        dependencyOffsets = new int[vertexCount + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            successorOffsets[from[e] + 1]++;
+            dependencyOffsets[to[e] + 1]++;
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            successorOffsets[v + 1] += successorOffsets[v];
+            dependencyOffsets[v + 1] += dependencyOffsets[v];
+        }
+
+        successors = new int[edgeCount];
+        dependencies = new int[edgeCount];
+        int[] successorFill = Arrays.copyOf(successorOffsets, vertexCount);
+        int[] dependencyFill = Arrays.copyOf(dependencyOffsets, vertexCount);
+        for (int e = 0; e < edgeCount; e++) {
+            successors[successorFill[from[e]]++] = to[e];
+            dependencies[dependencyFill[to[e]]++] = from[e];
+        }
+
+        order = topologicalOrder();
+    }
+
+    /** Kahn's algorithm with a LIFO fringe; vertices released by the same vertex
+     *  are pushed in ascending order, which reproduces Graph.TopologicalIterator. */
+    private int[] topologicalOrder() {
+        int[] remaining = new int[vertexCount];
+        int[] fringe = new int[vertexCount];
+        int top = 0;
+        for (int v = 0; v < vertexCount; v++) {
+            remaining[v] = inDegree(v);
+            if (remaining[v] == 0) {
+                fringe[top++] = v;
+            }
+        }
+        int[] result = new int[vertexCount];
+        int count = 0;
+        while (top > 0) {
+            int v = fringe[--top];
+            result[count++] = v;
+            int released = top;
+            for (int i = successorOffsets[v]; i < successorOffsets[v + 1]; i++) {
+                if (--remaining[successors[i]] == 0) {
+                    fringe[top++] = successors[i];
+                }
+            }
+            Arrays.sort(fringe, released, top);
+        }
+        /** a cycle leaves its vertices out of the order, like the iterator does */
+        return count == vertexCount ? result : Arrays.copyOf(result, count);
+    }
+
+    /** Returns the number of vertices. */
+    public int vertexCount() {
+        return vertexCount;
+    }
+
+    /** Returns the number of incoming Edges for vertex V. */
+    public int inDegree(int v) {
+        return dependencyOffsets[v + 1] - dependencyOffsets[v];
+    }
+
+    /** Returns the number of outgoing Edges for vertex V. */
+    public int outDegree(int v) {
+        return successorOffsets[v + 1] - successorOffsets[v];
+    }
+
+    /** Returns the I-th vertex that vertex V depends on, in Graph.dependencies(V) order. */
+    public int dependency(int v, int i) {
+        return dependencies[dependencyOffsets[v] + i];
+    }
+
+    /** Returns the I-th vertex that depends on vertex V. */
+    public int successor(int v, int i) {
+        return successors[successorOffsets[v] + i];
+    }
+
+    /** Returns the number of vertices in the topological order (less than vertexCount on a cycle). */
+    public int orderLength() {
+        return order.length;
+    }
+
+    /** Returns the I-th vertex in topological order. */
+    public int order(int i) {
+        return order[i];
+    }
+
+    /** Returns the vertices TARGETS transitively depend on, TARGETS included, as a mask
+     *  indexed by vertex. Walks the dependency (reverse) edges, in O(size of the cone). */
+    public boolean[] ancestors(int[] targets) {
+        boolean[] cone = new boolean[vertexCount];
+        int[] stack = new int[vertexCount];
+        int top = 0;
+        for (int target : targets) {
+            if (!cone[target]) {
+                cone[target] = true;
+                stack[top++] = target;
+            }
+        }
+        while (top > 0) {
+            int v = stack[--top];
+            for (int i = dependencyOffsets[v]; i < dependencyOffsets[v + 1]; i++) {
+                if (!cone[dependencies[i]]) {
+                    cone[dependencies[i]] = true;
+                    stack[top++] = dependencies[i];
+                }
+            }
+        }
+        return cone;
+    }
+
+    /** Returns a copy of the topological order. */
+    public int[] topologicalSort() {
+        return order.clone();
+    }
+}
@@ -0,0 +1,303 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs one workflow across Worker processes, one partition of its vertices per worker.
+ *
+ * partition assigns every vertex to a worker so that few edges cross partitions.
+ * Each worker is sent a Task: its vertices in topological order, their operators, and
+ * which of their results leave the partition. Such results come back to the coordinator
+ * as Output messages and are forwarded, as Input messages, to the workers that depend on
+ * them; the results of sink vertices stay here and are returned. A worker ends its run
+ * with Done, or with Failed carrying the exception of the operator that threw, at which
+ * point every connection is closed and the run fails with that exception.
+ *
+ * Messages are Java serialized, so the payloads of exchanged results must be Serializable
+ * and the workers' classpath must hold the classes of the operators' code.
+ */
+public class Coordinator {
+
+    private final List<InetSocketAddress> workers;
+
+    public Coordinator(List<InetSocketAddress> workers){
+        if(workers.isEmpty()){
+            throw new IllegalArgumentException("no workers");
+        }
+        this.workers = workers;
+    }
+
+    /** assign every vertex of dag to one of parts partitions
+     *
+     * Greedy, in topological order: a vertex goes to the partition holding most of its
+     * dependencies, so chains stay together, unless that partition already has its
+     * share of the vertices. Ties, sources among them, go to the least loaded partition.
+     *
+     * @return partition[v], the partition of vertex v
+     */
+    public static int[] partition(CompiledGraph dag, int parts){
+        int n = dag.vertexCount();
+        int[] partition = new int[n];
+        int[] load = new int[parts];
+        int share = (n + parts - 1) / parts;
+        int[] owned = new int[parts];
+        for(int i = 0; i < dag.orderLength(); i++){
+            int node = dag.order(i);
+            Arrays.fill(owned, 0);
+            for(int k = 0; k < dag.inDegree(node); k++){
+                owned[partition[dag.dependency(node, k)]]++;
+            }
+            int best = -1;
+            for(int p = 0; p < parts; p++){
+                if(load[p] >= share){
+                    continue;
+                }
+                if(best < 0 || owned[p] > owned[best] || (owned[p] == owned[best] && load[p] < load[best])){
+                    best = p;
+                }
+            }
+            partition[node] = best;
+            load[best]++;
+        }
+        return partition;
+    }
+
+    /** execute the plan on the workers and return the results of its sink operators
+     *
+     * @return the sink results, in the same topological order execute_workflow uses
+     */
+    public ArrayList<Result> execute(Plan plan) throws Exception {
+        CompiledGraph dag = plan.dag;
+        int parts = workers.size();
+        int[] partition = partition(dag, parts);
+        Task[] tasks = tasks(plan, partition, parts);
+
+        Run run = new Run(dag, partition, parts);
+        try {
+            /** every worker is connected and has its task before any result is forwarded */
+            ObjectInputStream[] in = new ObjectInputStream[parts];
+            for(int p = 0; p < parts; p++){
+                Socket socket = new Socket();
+                run.sockets[p] = socket;
+                socket.connect(workers.get(p));
+                socket.setTcpNoDelay(true);
+                run.out[p] = new ObjectOutputStream(socket.getOutputStream());
+                run.send(p, tasks[p]);
+                in[p] = new ObjectInputStream(socket.getInputStream());
+            }
+            for(int p = 0; p < parts; p++){
+                int part = p;
+                Thread reader = new Thread(() -> run.receive(part, in[part]), "coordinator-reader-" + p);
+                reader.setDaemon(true);
+                reader.start();
+            }
+            run.done.await();
+        } catch (IOException excp) {
+            run.fail(excp);
+        } finally {
+            run.close();
+        }
+        if(run.failure != null){
+            if(run.failure instanceof Exception){
+                throw (Exception) run.failure;
+            }
+            throw new IllegalStateException(run.failure);
+        }
+
+        ArrayList<Result> ret = new ArrayList<>();
+        for(int i = 0; i < dag.orderLength(); i++){
+            int node = dag.order(i);
+            if(dag.outDegree(node) == 0){
+                ret.add(run.results[node]);
+            }
+        }
+        return ret;
+    }
+
+    /** the Task of every partition */
+    private static Task[] tasks(Plan plan, int[] partition, int parts){
+        CompiledGraph dag = plan.dag;
+        int[] size = new int[parts];
+        for(int i = 0; i < dag.orderLength(); i++){
+            size[partition[dag.order(i)]]++;
+        }
+        Task[] tasks = new Task[parts];
+        for(int p = 0; p < parts; p++){
+            tasks[p] = new Task(size[p]);
+        }
+        int[] fill = new int[parts];
+        for(int i = 0; i < dag.orderLength(); i++){
+            int node = dag.order(i);
+            int p = partition[node];
+            Task task = tasks[p];
+            int at = fill[p]++;
+            task.vertices[at] = node;
+            task.operators[at] = plan.operators[node];
+            task.dependencies[at] = new int[dag.inDegree(node)];
+            for(int k = 0; k < dag.inDegree(node); k++){
+                task.dependencies[at][k] = dag.dependency(node, k);
+            }
+            boolean exported = dag.outDegree(node) == 0;
+            for(int k = 0; k < dag.outDegree(node); k++){
+                exported |= partition[dag.successor(node, k)] != p;
+            }
+            task.exported[at] = exported;
+        }
+        return tasks;
+    }
+
+    /** state of a single distributed execution */
+    private static class Run {
+        private final CompiledGraph dag;
+        private final int[] partition;
+        private final Socket[] sockets;
+        private final ObjectOutputStream[] out;
+        /** the results of the sink vertices, set by the readers before done is counted down */
+        private final Result[] results;
+        /** counted down once per worker that is done, or all at once on failure */
+        private final CountDownLatch done;
+        private volatile Throwable failure;
+
+        Run(CompiledGraph dag, int[] partition, int parts){
+            this.dag = dag;
+            this.partition = partition;
+            this.sockets = new Socket[parts];
+            this.out = new ObjectOutputStream[parts];
+            this.results = new Result[dag.vertexCount()];
+            this.done = new CountDownLatch(parts);
+        }
+
+        /** a worker's stream is written by the main thread and every reader forwarding to it */
+        void send(int p, Object message) throws IOException {
+            ObjectOutputStream stream = out[p];
+            synchronized (stream){
+                stream.writeObject(message);
+                /** messages are independent, don't let the stream keep references to them */
+                stream.reset();
+                stream.flush();
+            }
+        }
+
+        /** handle the messages of worker p until it is done */
+        void receive(int p, ObjectInputStream in){
+            try {
+                while(true){
+                    Object message = in.readObject();
+                    if(message instanceof Output){
+                        forward((Output) message);
+                    }else if(message instanceof Failed){
+                        fail(((Failed) message).failure);
+                        return;
+                    }else {
+                        done.countDown();
+                        return;
+                    }
+                }
+            } catch (Throwable excp) {
+                /** whatever ends a reader ends the run, or the caller would wait forever */
+                fail(excp);
+            }
+        }
+
+        /** send the result to every other partition that depends on it, keep it if it is a sink */
+        private void forward(Output output) throws IOException {
+            int node = output.vertex;
+            if(dag.outDegree(node) == 0){
+                results[node] = output.result;
+            }
+            boolean[] sent = new boolean[out.length];
+            sent[partition[node]] = true;
+            for(int k = 0; k < dag.outDegree(node); k++){
+                int p = partition[dag.successor(node, k)];
+                if(!sent[p]){
+                    sent[p] = true;
+                    send(p, new Input(node, output.result));
+                }
+            }
+        }
+
+        /** the first failure wins; release the caller */
+        synchronized void fail(Throwable excp){
+            if(failure == null){
+                failure = excp;
+            }
+            while(done.getCount() > 0){
+                done.countDown();
+            }
+        }
+
+        /** closing the sockets ends the readers, here and on the workers */
+        void close(){
+            for(Socket socket : sockets){
+                if(socket == null){
+                    continue;
+                }
+                try {
+                    socket.close();
+                } catch (IOException excp) {
+                    /** nothing left to do with it */
+                }
+            }
+        }
+    }
+
+    /** coordinator to worker: the partition to run */
+    static class Task implements Serializable {
+        /** the vertices of the partition, in topological order */
+        final int[] vertices;
+        final Operator[] operators;
+        /** the dependencies of vertices[i], in the order their results are passed */
+        final int[][] dependencies;
+        /** whether the result of vertices[i] is sent back */
+        final boolean[] exported;
+
+        Task(int size){
+            vertices = new int[size];
+            operators = new Operator[size];
+            dependencies = new int[size][];
+            exported = new boolean[size];
+        }
+    }
+
+    /** coordinator to worker: the result of a vertex of another partition */
+    static class Input implements Serializable {
+        final int vertex;
+        final Result result;
+
+        Input(int vertex, Result result){
+            this.vertex = vertex;
+            this.result = result;
+        }
+    }
+
+    /** worker to coordinator: the result of one of its vertices */
+    static class Output implements Serializable {
+        final int vertex;
+        final Result result;
+
+        Output(int vertex, Result result){
+            this.vertex = vertex;
+            this.result = result;
+        }
+    }
+
+    /** worker to coordinator: all of its vertices ran */
+    static class Done implements Serializable {
+    }
+
+    /** worker to coordinator: an operator threw */
+    static class Failed implements Serializable {
+        final Throwable failure;
+
+        Failed(Throwable failure){
+            this.failure = failure;
+        }
+    }
+}
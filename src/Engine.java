@@ -1,38 +1,128 @@
 import javax.print.attribute.ResolutionSyntax;
 import java.io.File;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Operators are content addressed: the code of an operator is stored once in
+ * operator_dir under the sha1 of its serialized Callable, and a workflow refers
+ * to its operators by those hashes.
+ *
  * Potential improvements:
- * 1. hashing the workflow serializable to hashcode to reduce the memory cost
- * 2. it will be important for us to gauge the size of the workflow/operator to get better cache performance
+ * 1. it will be important for us to gauge the size of the workflow/operator to get better cache performance
  *
  */
 public class Engine {
 
-    /** directory that might be used */
+    /** operator id of the Result holding the seed of an instance of execute_batch */
+    public static final String SEED = "seed";
+    /** default storage root: the current working directory */
     public static final File CWD = new File(System.getProperty("user.dir"));
-    public static final File WORKFLOW_DIR = Util.join(CWD,"workflow");
-    public static final File OPERATOR_DIR = Util.join(CWD,"operator");
+    /** directory that might be used */
+    public final File workflow_dir;
+    public final File operator_dir;
     /** Cache for workflow and operator */
     public static final boolean cache_status = true;
-    public static Cache cache;
+    public final Cache cache;
+    /** second cache tier: live Workflow/Operator instances, keyed by id and version */
+    public static final int OBJECT_CACHE_CAPACITY = 4096;
+    public final ObjectCache<Workflow> workflow_objects;
+    public final ObjectCache<Callable> operator_objects;
+    /** version stamp of every workflow registered since start-up, bumped on each registration */
+    private final ConcurrentHashMap<String, Long> versions = new ConcurrentHashMap<>();
+    /** opt-in: reuse the results of operators whose code and inputs match an earlier run */
+    public volatile boolean memoize = false;
+    public static final int MEMO_CAPACITY = 4096;
+    public final ResultMemo memo = new ResultMemo(MEMO_CAPACITY);
+    /** persist each workflow as one Bundle file in bundle_dir instead of one file per object */
+    public final boolean packed;
+    public final File bundle_dir;
+    /** opt-in: log the result of every operator of execute_workflow in checkpoint_dir,
+     *  so that a run that failed resumes from the operators it completed, see Checkpoint */
+    public volatile boolean checkpoint = false;
+    public final File checkpoint_dir;
+    /** most bytes of intermediate Results a run of execute_workflow holds on the heap, 0 for
+     *  no limit; past it they spill to scratch files in scratch_dir, see ResultStore */
+    public volatile long result_budget = 0;
+    public final File scratch_dir;
+    /** the hottest keys of the byte cache, saved by save_manifest and loaded on start-up */
+    public final File manifest_file;
+    public static final int MANIFEST_KEYS = 1024;
+    /** completes with the number of blobs the start-up warm-up loaded, see warm_up */
+    public final CompletableFuture<Integer> warmed_up;
+    private ScheduledExecutorService manifest_saver;
+    /** the failure of the last scheduled save of the manifest, see manifest_error */
+    private volatile IllegalArgumentException manifest_error;
+    /** queue of the files registrations write while write_behind is on */
+    public final WriteBehind writer = new WriteBehind();
+    private volatile boolean write_behind = false;
+    /** Dictionary {workflowId : the lock its registrations and updates hold} */
+    private final ConcurrentHashMap<String, Object> update_locks = new ConcurrentHashMap<>();
+    /** Dictionary {workflowId : its mapped Bundle}, kept open while the workflow is in use */
+    private final ConcurrentHashMap<String, Bundle> bundles = new ConcurrentHashMap<>();
+    /** time taken by each operator code in earlier runs, used to prioritize parallel runs */
+    public final OperatorHistory history = new OperatorHistory();
+    /** counters and histograms over every run of this engine, see register_metrics */
+    public final EngineMetrics metrics = new EngineMetrics();
+    /** notified of the events of every run, metrics first */
+    private final CopyOnWriteArrayList<RunListener> listeners = new CopyOnWriteArrayList<>(List.of(metrics));
+
+    /** initialize an engine persisting in the current working directory
+     * with a cache of capacity bytes**/
+    public Engine(int capacity){
+        this(CWD, capacity);
+    }
+
+    /** initialize the file persistence directory under root
+     * and initialize cache if necessary.
+     * Engines are independent of each other and every method can be called from many threads**/
+    public Engine(File root, int capacity){
+        this(root, capacity, false);
+    }
+
+    /** initialize an engine under root, writing packed Bundles if packed is true.
+     * Workflows stored in either format can be executed by any engine**/
+    public Engine(File root, int capacity, boolean packed){
+        this(root, capacity, packed, new LruPolicy());
+    }
 
-    /** initialize the file persistence directory in current working directory
-     * and initialize cache if necessary**/
-    public static void init(int capacity){
-        if(!WORKFLOW_DIR.exists()){
-            WORKFLOW_DIR.mkdirs();
+    /** initialize an engine under root whose byte cache evicts by policy, see EvictionPolicy**/
+    public Engine(File root, int capacity, boolean packed, EvictionPolicy policy){
+        this.packed = packed;
+        workflow_dir = Util.join(root,"workflow");
+        operator_dir = Util.join(root,"operator");
+        bundle_dir = Util.join(root,"bundle");
+        checkpoint_dir = Util.join(root,"checkpoint");
+        scratch_dir = Util.join(root,"scratch");
+        if(packed && !bundle_dir.exists()){
+            bundle_dir.mkdirs();
         }
-        if(!OPERATOR_DIR.exists()){
-            OPERATOR_DIR.mkdirs();
+        if(!workflow_dir.exists()){
+            workflow_dir.mkdirs();
         }
-        if(cache_status == true){
-            cache = new Cache(capacity);
+        if(!operator_dir.exists()){
+            operator_dir.mkdirs();
         }
+        cache = new Cache(capacity, policy);
+        workflow_objects = new ObjectCache<>(OBJECT_CACHE_CAPACITY);
+        operator_objects = new ObjectCache<>(OBJECT_CACHE_CAPACITY);
+        manifest_file = Util.join(root, "cache.manifest");
+        /** requests are served while the caches fill */
+        warmed_up = manifest_file.exists() ? warm_up(ForkJoinPool.commonPool())
+                : CompletableFuture.completedFuture(0);
     }
 
-    public static void register_workflow(String workflowId,
+    public void register_workflow(String workflowId,
                                   HashMap<String, Callable> operators,
                                   ArrayList<Tuple> dependencies){
         /**
@@ -53,41 +143,286 @@ public class Engine {
         int num_vertices = operators.size();
 
         ArrayList<String> graph_to_operator = new ArrayList<>();
+        /** Dictionary {operator id : its vertex} */
+        HashMap<String, Integer> vertex = new HashMap<>();
         for(String operator_id : operators.keySet()) {
+            vertex.put(operator_id, graph_to_operator.size());
             graph_to_operator.add(operator_id);
         }
 
         Graph dag = new Graph(num_vertices);
         for(Tuple key : dependencies) {
-            if(!graph_to_operator.contains(key.x) || !graph_to_operator.contains(key.y)) {
+            if(!vertex.containsKey(key.x) || !vertex.containsKey(key.y)) {
                 System.out.println("operator in the dependencies does not exist");
                 return;
             }
-            dag.addEdge(graph_to_operator.indexOf(key.x), graph_to_operator.indexOf(key.y));
+            dag.addEdge(vertex.get(key.x), vertex.get(key.y));
+        }
+
+        /** save the operators into operator folder, named by the hash of their code.
+         * Identical code is stored once, and an unchanged operator is not written again */
+        ArrayList<String> operator_hashes = new ArrayList<>(num_vertices);
+        LinkedHashMap<String, byte[]> packed_operators = new LinkedHashMap<>();
+        for(String operator_id : graph_to_operator){
+            String hash = store_operator(operators.get(operator_id), packed_operators);
+            operator_hashes.add(hash);
         }
 
         /** store it as workflow */
-        Workflow wf = new Workflow(workflowId,graph_to_operator,dag);
+        Workflow wf = new Workflow(workflowId,graph_to_operator,operator_hashes,dag);
+        synchronized (update_lock(workflowId)){
+            store_workflow(wf, packed_operators);
+        }
+    }
+
+    /** store the code unless it is stored already; in packed mode put it into packed_operators instead.
+     *  Returns the hash of the code */
+    private String store_operator(Callable code, Map<String, byte[]> packed_operators){
+        byte[] serialized = Util.serialize(code);
+        String hash = Util.sha1(serialized);
+        if(packed){
+            packed_operators.put(hash, serialized);
+        }else {
+            File operator_file = Util.join(operator_dir,hash);
+            if(!operator_file.exists() && !(write_behind && writer.pending(operator_file) != null)){
+                write(operator_file,serialized);
+            }
+        }
+        if(cache_status){
+            operator_objects.add(hash, 0, code);
+        }
+        return hash;
+    }
 
-        /** save the workflow into workflow folder */
-        File workflow_file = Util.join(WORKFLOW_DIR,workflowId);
-        if(workflow_file.exists()){
-            workflow_file.delete();
+    /** persist wf, replacing its previous definition, and make it the one executions load.
+     *  In packed mode packed_operators must hold the code of every operator of wf */
+    private void store_workflow(Workflow wf, Map<String, byte[]> packed_operators){
+        String workflowId = wf.workflowId;
+        if(packed){
+            /** save the workflow and its operators into one bundle */
+            LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>();
+            entries.put(workflowId, Util.encode(wf));
+            entries.putAll(packed_operators);
+            delete(Util.join(workflow_dir,workflowId));
+            write(Util.join(bundle_dir,workflowId),Bundle.pack(entries));
+        }else {
+            /** save the workflow into workflow folder */
+            write(Util.join(workflow_dir,workflowId),Util.encode(wf));
+            delete(Util.join(bundle_dir,workflowId));
         }
-        Util.writeObject(workflow_file,wf);
+        long version = invalidate(workflowId);
+        bundles.remove(workflowId);
+        if(cache_status){
+            workflow_objects.add(workflowId, version, wf);
+        }
+    }
 
-        /** save the operators into operator folder */
-        for(String operator_id : operators.keySet()){
-            Operator opt = new Operator(operator_id,operators.get(operator_id));
-            File operator_file = Util.join(OPERATOR_DIR,operator_id);
-            if(operator_file.exists()){
-                operator_file.delete();
+    public boolean add_operator(String workflowId, String operatorId, Callable code){
+        /**
+         * Add an operator without dependencies to a registered workflow.
+         * Only the workflow and the new code are written; the other operators,
+         * and their cache entries, are left alone.
+         * Returns false if the workflow does not exist or already has the operator.
+         */
+        return update(workflowId, (wf, packed_operators) -> {
+            if(wf.workflow_dictionary.contains(operatorId)){
+                System.out.println("operator already exists");
+                return null;
             }
-            Util.writeObject(operator_file,opt);
+            Graph dag = wf.dag.copy();
+            dag.addVertex();
+            ArrayList<String> dictionary = new ArrayList<>(wf.workflow_dictionary);
+            dictionary.add(operatorId);
+            ArrayList<String> hashes = new ArrayList<>(wf.operator_hashes);
+            hashes.add(store_operator(code, packed_operators));
+            return new Workflow(workflowId, dictionary, hashes, dag);
+        });
+    }
+
+    public boolean remove_operator(String workflowId, String operatorId){
+        /**
+         * Remove an operator and its dependencies from a registered workflow.
+         * Returns false if the workflow or the operator does not exist.
+         */
+        return update(workflowId, (wf, packed_operators) -> {
+            int v = wf.workflow_dictionary.indexOf(operatorId);
+            if(v < 0){
+                System.out.println("operator does not exist");
+                return null;
+            }
+            Graph dag = wf.dag.copy();
+            dag.removeVertex(v);
+            ArrayList<String> dictionary = new ArrayList<>(wf.workflow_dictionary);
+            dictionary.remove(v);
+            ArrayList<String> hashes = new ArrayList<>(wf.operator_hashes);
+            hashes.remove(v);
+            return new Workflow(workflowId, dictionary, hashes, dag);
+        });
+    }
+
+    public boolean add_edge(String workflowId, Tuple dependency){
+        /**
+         * Make operator dependency.y depend on operator dependency.x.
+         * Only the part of the DAG reachable from dependency.y is visited to check
+         * that the edge does not close a cycle.
+         * Returns false if an operator does not exist or the edge would close a cycle.
+         */
+        return update(workflowId, (wf, packed_operators) -> {
+            int from = wf.workflow_dictionary.indexOf(dependency.x);
+            int to = wf.workflow_dictionary.indexOf(dependency.y);
+            if(from < 0 || to < 0){
+                System.out.println("operator in the dependencies does not exist");
+                return null;
+            }
+            if(wf.dag.reachable(to, from)){
+                System.out.println("dependency would create a cycle");
+                return null;
+            }
+            Graph dag = wf.dag.copy();
+            dag.addEdge(from, to);
+            return new Workflow(workflowId, wf.workflow_dictionary, wf.operator_hashes, dag);
+        });
+    }
+
+    public boolean remove_edge(String workflowId, Tuple dependency){
+        /**
+         * Remove the dependency of operator dependency.y on operator dependency.x.
+         * Returns false if there is no such dependency.
+         */
+        return update(workflowId, (wf, packed_operators) -> {
+            int from = wf.workflow_dictionary.indexOf(dependency.x);
+            int to = wf.workflow_dictionary.indexOf(dependency.y);
+            Graph dag = wf.dag.copy();
+            if(from < 0 || to < 0 || !dag.removeEdge(from, to)){
+                System.out.println("dependency does not exist");
+                return null;
+            }
+            return new Workflow(workflowId, wf.workflow_dictionary, wf.operator_hashes, dag);
+        });
+    }
+
+    /** a change of a workflow: the new Workflow built from the current one (which
+     *  must not be modified, runs may be using it), or null to leave it as it is */
+    private interface Patch {
+        Workflow apply(Workflow current, Map<String, byte[]> packed_operators);
+    }
+
+    /** apply patch to the current definition of workflowId and store the result.
+     *  Updates of one workflow are serialized so that none of them is lost */
+    private boolean update(String workflowId, Patch patch){
+        synchronized (update_lock(workflowId)){
+            RunTrace trace = new RunTrace(workflowId, null, new RunListener[0], null);
+            Workflow current = load_workflow(workflowId, trace);
+            if(current == null){
+                System.out.println("workflow does not exist");
+                return false;
+            }
+            LinkedHashMap<String, byte[]> packed_operators = new LinkedHashMap<>();
+            Workflow wf = patch.apply(current, packed_operators);
+            if(wf == null){
+                return false;
+            }
+            wf.status = current.status;
+            if(packed){
+                /** a bundle is one file: carry the code of the operators that stay over */
+                Bundle bundle = open_bundle(workflowId);
+                for(String hash : wf.operator_hashes){
+                    if(packed_operators.containsKey(hash)){
+                        continue;
+                    }
+                    byte[] serialized;
+                    if(bundle != null && bundle.contains(hash)){
+                        ByteBuffer view = bundle.slice(hash);
+                        serialized = new byte[view.remaining()];
+                        view.get(serialized);
+                    }else {
+                        /** registered unpacked before */
+                        serialized = contents(Util.join(operator_dir, hash));
+                    }
+                    if(serialized == null){
+                        System.out.println("operator does not exist");
+                        return false;
+                    }
+                    packed_operators.put(hash, serialized);
+                }
+            }
+            store_workflow(wf, packed_operators);
+            return true;
+        }
+    }
+
+    private Object update_lock(String workflowId){
+        return update_locks.computeIfAbsent(workflowId, id -> new Object());
+    }
+
+    /** write contents to file now, or queue it if write_behind is on */
+    private void write(File file, byte[] contents){
+        if(write_behind){
+            writer.write(file, contents);
+        }else {
+            cancel_pending(file);
+            Util.writeContents(file, contents);
+        }
+    }
+
+    private void delete(File file){
+        if(write_behind){
+            writer.delete(file);
+        }else {
+            cancel_pending(file);
+            file.delete();
+        }
+    }
+
+    /** a queued write of file left from write-behind mode must not replace what is written now */
+    private void cancel_pending(File file){
+        try {
+            writer.cancel(file);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while writing " + file.getName());
+        }
+    }
+
+    /** the contents file has or is about to have, null if it does not exist */
+    private byte[] contents(File file){
+        byte[] pending = writer.pending(file);
+        if(pending == WriteBehind.DELETED){
+            return null;
+        }else if(pending != null){
+            return pending;
+        }
+        return file.exists() ? Util.readContents(file) : null;
+    }
+
+    public void write_behind(boolean on){
+        /**
+         * Switch asynchronous registration on or off.
+         * While it is on, register_workflow returns as soon as the workflow is in memory:
+         * it is visible to executions right away and its files are written by the
+         * writer thread, see WriteBehind. Switching it off waits for the queued writes;
+         * if one of them fails it throws, and write-behind stays on.
+         */
+        if(!on){
+            flush();
         }
+        write_behind = on;
     }
 
-    public static ArrayList<Result> execute_workflow(String workflowid) throws Exception {
+    public void flush(){
+        /**
+         * Wait until every workflow registered so far is on disk.
+         * Throws IllegalStateException if a queued write failed.
+         */
+        try {
+            writer.flush();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while flushing");
+        }
+    }
+
+    public ArrayList<Result> execute_workflow(String workflowid) throws Exception {
         /**
          * Execute a workflow given the workflow id.
          *  Args:
@@ -96,75 +431,588 @@ public class Engine {
          *      a list of `result` of operators who are not dependencies of
          *          any other operators (also called the "sink" operators).
          */
+        return execute_workflow(workflowid, (RunStats) null);
+    }
 
-        byte[] cache_workflow = cache.find(workflowid);
-        Workflow wf;
-        if(cache_workflow != null && cache_status){
-            /** cache hit and load directly from cache, update timestamp */
-            wf = Util.deserialize(cache_workflow,Workflow.class);
-            cache.update(workflowid);
-        }else {
-            /** cache miss and load the workflow with workflowid, add it in cache*/
-            File workflow_file = Util.join(WORKFLOW_DIR, workflowid);
-            if (!workflow_file.exists()) {
-                System.out.println("workflow does not exist");
-                return null;
+    public ArrayList<Result> execute_workflow(String workflowid, RunStats stats) throws Exception {
+        /**
+         * Execute a workflow given the workflow id, and report how the run went.
+         *  Args:
+         *      workflowId: the ID of the workflow to be executed.
+         *      stats: filled in with the figures of this run, may be null.
+         * Returns:
+         *      the "sink" results, like execute_workflow(workflowId).
+         */
+
+        RunTrace trace = new RunTrace(workflowid, stats, listeners.toArray(new RunListener[0]), history);
+        Plan plan = prepare(workflowid, trace);
+        if(plan == null){
+            return null;
+        }
+
+        /** the log of this workflow's runs, null if checkpoints are off or another run holds it */
+        Checkpoint log = null;
+        if(checkpoint){
+            log = Checkpoint.open(Util.join(checkpoint_dir, workflowid), Util.sha1(Util.encode(plan.workflow)), trace);
+            if(log == null){
+                trace.checkpoint_unavailable();
             }
-            wf = Util.readObject(workflow_file, Workflow.class);
-            byte[] wf_serialized = Util.serialize(wf);
-            cache.add(workflowid,wf_serialized);
-        }
-
-        /** return array of result */
-        ArrayList<Result> ret= new ArrayList<>();
-        /** Dictionary: dictionary.get(index) = workflowid */
-        ArrayList<String> dictionary = wf.workflow_dictionary;
-        /** the graph stored in the workflow generated from register */
-        Graph dag = wf.dag;
-        /** topological iterator of the operators order from the workflow */
-        Iterator<Integer> workflow_iterator = dag.iterator();
-        /** Dictionary {Operator : Result} */
-        HashMap<Integer, Result> executed_result = new HashMap<>();
-
-        /** begin execution **/
-        while(workflow_iterator.hasNext()) {
-            /** read the operator **/
-            int node = workflow_iterator.next();
-            String operator_id = dictionary.get(node);
-            byte[] cache_operator = cache.find(operator_id);
-            Operator operator;
-            if(cache_operator != null && cache_status){
-                /** if cache hit directly use cache and update its timestamp*/
-                operator = Util.deserialize(cache_operator,Operator.class);
-                cache.update(operator_id);
-            }else {
-                /** if cache miss, load the operator from disk and save it in cache */
-                File operator_file = Util.join(OPERATOR_DIR, operator_id);
-                if (!operator_file.exists()) {
-                    System.out.println("operator does not exist");
-                    return null;
+        }
+
+        ArrayList<Result> sinks;
+        try {
+            sinks = run(plan, trace.requested ? trace.stats : null, null, log);
+        } catch (Exception excp) {
+            if(log != null){
+                /** keep what completed for the next run */
+                log.close();
+            }
+            trace.finished(plan.dag, excp);
+            throw excp;
+        }
+        if(log != null){
+            log.discard();
+        }
+        trace.finished(plan.dag, null);
+        return sinks;
+    }
+
+    /** run the plan once on this thread, the source operators receiving seed if it is not null.
+     *  The operators whose result is in log are not run again, and the others are added to it */
+    private ArrayList<Result> run(Plan plan, RunStats stats, Comparable seed, Checkpoint log) throws Exception {
+        /** Dictionary {Operator : Result}, an intermediate result is dropped after its last use */
+        ResultStore executed_result = plan.results(stats);
+        try {
+            return run(plan, executed_result, seed, log);
+        } finally {
+            executed_result.close();
+        }
+    }
+
+    private ArrayList<Result> run(Plan plan, ResultStore executed_result, Comparable seed, Checkpoint log) throws Exception {
+        /** the compiled graph stored in the workflow generated from register */
+        CompiledGraph dag = plan.dag;
+        RunStats stats = executed_result.stats;
+        /** the operators run one after the other on this thread, like a fused chain */
+        RunTrace.Clock clock = new RunTrace.Clock();
+
+        /** begin execution in topological order **/
+        for(int i = 0; i < dag.orderLength(); i++) {
+            int node = dag.order(i);
+            if(plan.cone != null && !plan.cone[node]){
+                continue;
+            }
+            if(log != null && log.has(node)){
+                /** completed by an earlier run: only read back if a vertex still to run needs it */
+                executed_result.put(node, needed(dag, node, log) ? log.get(node) : null);
+                executed_result.release_inputs(node);
+                if(stats != null){
+                    stats.operators_resumed++;
                 }
-                operator = Util.readObject(operator_file, Operator.class);
-                byte[] operator_serialized = Util.serialize(operator);
-                cache.add(operator_id,operator_serialized);
+                continue;
             }
             /** find its dependencies by using Graph */
-            ArrayList<Integer> dependent = dag.dependencies(node);
-            ArrayList<Result> dependent_result = new ArrayList<>();
-            for (int dependent_index : dependent) {
-                dependent_result.add(executed_result.get(dependent_index));
-            }
-            /** get the Result */
-            Result result = operator.execute(dependent_result);
-            /** if out-degree is 0 then store it as return value,
-             * else it is a by-process so store it in the dictionary.
-             */
-            if (dag.outDegree(node) == 0) {
-                ret.add(result);
-            } else {
-                executed_result.put(node, result);
+            ArrayList<Result> dependent_result = executed_result.inputs(node);
+            if(seed != null && dag.inDegree(node) == 0){
+                dependent_result.add(new Result(SEED, seed));
             }
+            /** get the Result, then release the dependencies it was the last user of */
+            Result result = plan.execute(node, dependent_result, System.nanoTime(), clock);
+            if(log != null){
+                log.append(node, result);
+            }
+            executed_result.put(node, result);
+            executed_result.release_inputs(node);
+        }
+        if(plan.targets != null){
+            ArrayList<Result> ret = new ArrayList<>(plan.targets.length);
+            for(int target : plan.targets){
+                ret.add(executed_result.get(target));
+            }
+            return ret;
+        }
+        /** the results left are the ones with out-degree 0 */
+        return executed_result.sinks();
+    }
+
+    /** whether the logged result of node is a sink result or an input of a vertex not in log */
+    private static boolean needed(CompiledGraph dag, int node, Checkpoint log){
+        if(dag.outDegree(node) == 0){
+            return true;
+        }
+        for(int k = 0; k < dag.outDegree(node); k++){
+            if(!log.has(dag.successor(node, k))){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public ArrayList<Result> execute_targets(String workflowid, List<String> targets) throws Exception {
+        /**
+         * Execute only what is needed for some of the operators of a workflow: the targets
+         * and the operators they transitively depend on. The others are not run, nor loaded.
+         *  Args:
+         *      workflowId: the ID of the workflow to be executed.
+         *      targets: the IDs of the operators whose results are wanted, sinks or not.
+         * Returns:
+         *      the `result` of every target, in the order of targets;
+         *      null if the workflow or one of the targets does not exist.
+         */
+        return execute_targets(workflowid, targets, null);
+    }
+
+    public ArrayList<Result> execute_targets(String workflowid, List<String> targets, RunStats stats) throws Exception {
+        /**
+         * Execute the targets of a workflow like execute_targets(workflowId, targets),
+         * and report how the run went.
+         *  Args:
+         *      workflowId: the ID of the workflow to be executed.
+         *      targets: the IDs of the operators whose results are wanted.
+         *      stats: filled in with the figures of this run, may be null.
+         * Returns:
+         *      the `result` of every target, in the order of targets.
+         */
+        RunTrace trace = new RunTrace(workflowid, stats, listeners.toArray(new RunListener[0]), history);
+        Plan plan = prepare(workflowid, trace, targets);
+        if(plan == null){
+            return null;
+        }
+        try {
+            ArrayList<Result> results = run(plan, trace.requested ? trace.stats : null, null, null);
+            trace.finished(plan.dag, null);
+            return results;
+        } catch (Exception excp) {
+            trace.finished(plan.dag, excp);
+            throw excp;
+        }
+    }
+
+    public ArrayList<ArrayList<Result>> execute_batch(String workflowid, List<? extends Comparable> seeds) throws Exception {
+        return execute_batch(workflowid, seeds, false);
+    }
+
+    public ArrayList<ArrayList<Result>> execute_batch(String workflowid, List<? extends Comparable> seeds,
+                                                      boolean vectorize) throws Exception {
+        /**
+         * Execute one workflow once per seed, loading and preparing it only once.
+         *  Args:
+         *      workflowId: the ID of the workflow to be executed.
+         *      seeds: one per instance; the source operators of instance i receive
+         *          a Result of operator SEED holding seeds.get(i) as their only input.
+         *      vectorize: run the instances operator by operator instead of one after
+         *          the other, a BatchCallable being called once for all of them.
+         * Returns:
+         *      the "sink" results of every instance, in the order of seeds.
+         */
+        RunTrace trace = new RunTrace(workflowid, null, listeners.toArray(new RunListener[0]), history);
+        Plan plan = prepare(workflowid, trace);
+        if(plan == null){
+            return null;
+        }
+        ArrayList<ArrayList<Result>> ret = new ArrayList<>(seeds.size());
+        try {
+            if(vectorize){
+                ret = run_vectorized(plan, seeds);
+            }else {
+                for(Comparable seed : seeds){
+                    ret.add(run(plan, (RunStats) null, seed, null));
+                }
+            }
+        } catch (Exception excp) {
+            trace.finished(plan.dag, excp);
+            throw excp;
+        }
+        trace.finished(plan.dag, null);
+        return ret;
+    }
+
+    /** run every instance of the batch through one vertex before going on to the next one */
+    private ArrayList<ArrayList<Result>> run_vectorized(Plan plan, List<? extends Comparable> seeds) throws Exception {
+        CompiledGraph dag = plan.dag;
+        ArrayList<ResultStore> instances = new ArrayList<>(seeds.size());
+        for(int b = 0; b < seeds.size(); b++){
+            instances.add(new ResultStore(dag, null));
+        }
+        for(int i = 0; i < dag.orderLength(); i++) {
+            int node = dag.order(i);
+            ArrayList<ArrayList<Result>> inputs = new ArrayList<>(seeds.size());
+            for(int b = 0; b < seeds.size(); b++){
+                ArrayList<Result> dependent_result = instances.get(b).inputs(node);
+                if(seeds.get(b) != null && dag.inDegree(node) == 0){
+                    dependent_result.add(new Result(SEED, seeds.get(b)));
+                }
+                inputs.add(dependent_result);
+            }
+            ArrayList<Result> results = plan.execute_batch(node, inputs, System.nanoTime());
+            for(int b = 0; b < seeds.size(); b++){
+                instances.get(b).put(node, results.get(b));
+                instances.get(b).release_inputs(node);
+            }
+        }
+        ArrayList<ArrayList<Result>> ret = new ArrayList<>(seeds.size());
+        for(ResultStore instance : instances){
+            ret.add(instance.sinks());
         }
         return ret;
     }
+
+    public ArrayList<Result> execute_workflow(String workflowid, ExecutorService executor) throws Exception {
+        /**
+         * Execute a workflow given the workflow id, running every operator whose
+         * dependencies have finished concurrently on the executor.
+         *  Args:
+         *      workflowId: the ID of the workflow to be executed.
+         *      executor: the pool the operators run on, e.g. ForkJoinPool.commonPool().
+         * Returns:
+         *      the "sink" results, in the same order as execute_workflow(workflowId).
+         */
+        return execute_workflow(workflowid, executor, null);
+    }
+
+    public ArrayList<Result> execute_workflow(String workflowid, ExecutorService executor, RunStats stats) throws Exception {
+        /**
+         * Execute a workflow in parallel on the executor, and report how the run went.
+         *  Args:
+         *      workflowId: the ID of the workflow to be executed.
+         *      executor: the pool the operators run on.
+         *      stats: filled in with the figures of this run, may be null.
+         * Returns:
+         *      the "sink" results, in the same order as execute_workflow(workflowId).
+         */
+        RunTrace trace = new RunTrace(workflowid, stats, listeners.toArray(new RunListener[0]), history);
+        Plan plan = prepare(workflowid, trace);
+        if(plan == null){
+            return null;
+        }
+        try {
+            ArrayList<Result> sinks = new ParallelExecutor(executor).execute(plan, trace.requested ? trace.stats : null);
+            trace.finished(plan.dag, null);
+            return sinks;
+        } catch (Exception excp) {
+            trace.finished(plan.dag, excp);
+            throw excp;
+        }
+    }
+
+    public ArrayList<Result> execute_streaming(String workflowid, int buffer) throws Exception {
+        /**
+         * Execute a workflow as a pipeline, see StreamingExecutor: every operator runs
+         * on its own thread and StreamingCallable stages pass records through channels
+         * of buffer records, so they overlap and hold at most buffer records per edge.
+         *  Args:
+         *      workflowId: the ID of the workflow to be executed.
+         *      buffer: the capacity of every channel between streaming stages.
+         * Returns:
+         *      the "sink" results, a streaming sink's records gathered into a Records payload.
+         */
+        RunTrace trace = new RunTrace(workflowid, null, listeners.toArray(new RunListener[0]), history);
+        Plan plan = prepare(workflowid, trace);
+        if(plan == null){
+            return null;
+        }
+        try {
+            ArrayList<Result> sinks = new StreamingExecutor(buffer).execute(plan);
+            trace.finished(plan.dag, null);
+            return sinks;
+        } catch (Exception excp) {
+            trace.finished(plan.dag, excp);
+            throw excp;
+        }
+    }
+
+    public ArrayList<Result> execute_distributed(String workflowid, List<InetSocketAddress> workers) throws Exception {
+        /**
+         * Execute a workflow across Worker processes, see Coordinator: the vertices are
+         * partitioned so that few edges cross workers, each worker runs its partition and
+         * the results crossing partitions are forwarded through this engine.
+         *  Args:
+         *      workflowId: the ID of the workflow to be executed.
+         *      workers: the addresses of the workers, one partition each.
+         * Returns:
+         *      the "sink" results, in the same order as execute_workflow(workflowId).
+         */
+        RunTrace trace = new RunTrace(workflowid, null, listeners.toArray(new RunListener[0]), history);
+        Plan plan = prepare(workflowid, trace);
+        if(plan == null){
+            return null;
+        }
+        try {
+            ArrayList<Result> sinks = new Coordinator(workers).execute(plan);
+            trace.finished(plan.dag, null);
+            return sinks;
+        } catch (Exception excp) {
+            trace.finished(plan.dag, excp);
+            throw excp;
+        }
+    }
+
+    public void save_manifest(){
+        /**
+         * Save the MANIFEST_KEYS most used keys of the byte cache in manifest_file,
+         * for the next engine on this root to load on start-up.
+         */
+        CacheManifest.write(manifest_file, cache.hottest(MANIFEST_KEYS));
+    }
+
+    public synchronized void save_manifest_every(long period_millis){
+        /**
+         * Save the manifest every period_millis milliseconds on a background thread,
+         * replacing the previous schedule once its save in progress, if any, is done;
+         * 0 stops saving it.
+         */
+        if(manifest_saver != null){
+            /** let a save in progress finish, it must not race with the next schedule */
+            manifest_saver.shutdown();
+            try {
+                manifest_saver.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+            manifest_saver = null;
+        }
+        if(period_millis <= 0){
+            return;
+        }
+        manifest_saver = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "manifest-saver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        manifest_saver.scheduleAtFixedRate(() -> {
+            try {
+                save_manifest();
+                manifest_error = null;
+            } catch (IllegalArgumentException excp) {
+                manifest_error = excp;
+            }
+        }, period_millis, period_millis, TimeUnit.MILLISECONDS);
+    }
+
+    public IllegalArgumentException manifest_error(){
+        /**
+         * Returns:
+         *      why the last scheduled save of the manifest failed, null if it succeeded.
+         */
+        return manifest_error;
+    }
+
+    public CompletableFuture<Integer> warm_up(ExecutorService executor){
+        /**
+         * Load the keys of manifest_file into the caches, in parallel on the executor.
+         * The hottest keys are taken until the byte cache would be full, and each
+         * one is read and deserialized once, as if it had just been executed.
+         * The engine serves requests meanwhile; the constructor calls this when it
+         * finds a manifest.
+         *  Args:
+         *      executor: the pool the keys are loaded on.
+         * Returns:
+         *      completes with the number of keys loaded.
+         */
+        ArrayList<CompletableFuture<Boolean>> loads = new ArrayList<>();
+        long room = cache.capacity;
+        for(Map.Entry<String, long[]> entry : CacheManifest.read(manifest_file).entrySet()){
+            room -= entry.getValue()[1];
+            if(room < 0){
+                break;
+            }
+            String id = entry.getKey();
+            loads.add(CompletableFuture.supplyAsync(() -> prefetch(id), executor));
+        }
+        return CompletableFuture.allOf(loads.toArray(new CompletableFuture[0])).thenApply(done -> {
+            int loaded = 0;
+            for(CompletableFuture<Boolean> load : loads){
+                loaded += load.join() ? 1 : 0;
+            }
+            return loaded;
+        });
+    }
+
+    /** put the blob of id, a workflow or an operator hash, in the byte and object caches;
+     *  false if it is no longer stored (or already cached) */
+    private boolean prefetch(String id){
+        try {
+            File workflow = Util.join(workflow_dir, id);
+            if(workflow.exists() || writer.pending(workflow) != null){
+                /** a registration of the workflow replaces its blob under the same lock */
+                synchronized (update_lock(id)){
+                    return prefetch(id, workflow, Workflow.class, workflow_objects);
+                }
+            }
+            return prefetch(id, Util.join(operator_dir, id), Callable.class, operator_objects);
+        } catch (IllegalArgumentException excp) {
+            /** unreadable, it will be reported when it is executed */
+            return false;
+        }
+    }
+
+    private <T extends Serializable> boolean prefetch(String id, File file, Class<T> type, ObjectCache<T> objects){
+        long version = versions.getOrDefault(id, 0L);
+        if(objects.find(id, version) != null){
+            return false;
+        }
+        byte[] serialized = contents(file);
+        if(serialized == null){
+            return false;
+        }
+        cache.add(id, serialized);
+        objects.add(id, version, Util.decode(serialized, type));
+        return true;
+    }
+
+    /** notify listener of the events of every run from now on */
+    public void add_listener(RunListener listener){
+        listeners.add(listener);
+    }
+
+    public void remove_listener(RunListener listener){
+        listeners.remove(listener);
+    }
+
+    /** publish this engine's metrics over JMX under WorkflowEngine:type=EngineMetrics,name=NAME */
+    public void register_metrics(String name){
+        metrics.register(name);
+    }
+
+    /** load the workflow and every one of its operators; null if any of them does not exist.
+     *  A run that can't be prepared is finished right away, as failed */
+    private Plan prepare(String workflowid, RunTrace trace){
+        return prepare(workflowid, trace, null);
+    }
+
+    /** the plan of a run of only the operators targets depend on, targets included;
+     *  the whole workflow if targets is null */
+    private Plan prepare(String workflowid, RunTrace trace, List<String> targets){
+        Workflow wf = load_workflow(workflowid, trace);
+        if(wf == null){
+            trace.finished(null, new IllegalArgumentException("workflow does not exist"));
+            return null;
+        }
+        trace.planned(wf);
+        int[] target_vertices = null;
+        boolean[] cone = null;
+        if(targets != null){
+            target_vertices = new int[targets.size()];
+            for(int i = 0; i < target_vertices.length; i++){
+                target_vertices[i] = wf.workflow_dictionary.indexOf(targets.get(i));
+                if(target_vertices[i] < 0){
+                    trace.finished(null, new IllegalArgumentException("operator does not exist"));
+                    return null;
+                }
+            }
+            cone = wf.compiled.ancestors(target_vertices);
+        }
+        Operator[] operators = new Operator[wf.workflow_dictionary.size()];
+        for(int node = 0; node < operators.length; node++){
+            if(cone != null && !cone[node]){
+                /** not needed, not even loaded */
+                continue;
+            }
+            operators[node] = load_operator(wf, node, trace);
+            if(operators[node] == null){
+                trace.finished(null, new IllegalArgumentException("operator does not exist"));
+                return null;
+            }
+        }
+        return new Plan(wf, operators, memoize ? memo : null, trace, history, result_budget, scratch_dir,
+                target_vertices, cone);
+    }
+
+    /** load the workflow from cache, or from disk on a cache miss; null if it does not exist */
+    private Workflow load_workflow(String workflowid, RunTrace trace){
+        return load(workflowid, workflow_dir, Workflow.class, workflow_objects, workflowid, trace);
+    }
+
+    /** load the operator of vertex node from cache, or from disk on a cache miss; null if it does not exist */
+    private Operator load_operator(Workflow wf, int node, RunTrace trace){
+        /** the code is immutable under its hash, version 0 is the only version */
+        Callable code = load(wf.operator_hashes.get(node), operator_dir, Callable.class, operator_objects, wf.workflowId, trace);
+        if(code == null){
+            return null;
+        }
+        return new Operator(wf.workflow_dictionary.get(node), code);
+    }
+
+    /** look id up in the object cache, then in the byte cache, then on disk:
+     *  in the bundle of workflowId if there is one, else in dir.
+     *  Every object is deserialized at most once per version: the bytes read from
+     *  a file go into the byte cache as they are, the instance into the object cache.
+     *  Entries of a bundle are deserialized straight from the mapping, which already
+     *  is an off-heap copy of the bytes, so they are not copied into the byte cache */
+    private <T extends Serializable> T load(String id, File dir, Class<T> type, ObjectCache<T> objects,
+                                            String workflowId, RunTrace trace){
+        long version = versions.getOrDefault(id, 0L);
+        if(cache_status){
+            T instance = objects.find(id, version);
+            trace.cache_lookup(id, "object", instance != null);
+            if(instance != null){
+                /** object hit, keep the bytes recently used as well */
+                cache.update(id);
+                return instance;
+            }
+        }
+        T instance;
+        byte[] serialized = cache_status ? cache.find(id) : null;
+        if(cache_status){
+            trace.cache_lookup(id, "bytes", serialized != null);
+        }
+        Bundle bundle;
+        long start;
+        if(serialized != null){
+            /** cache hit and load directly from cache, update timestamp */
+            start = System.nanoTime();
+            instance = Util.decode(serialized, type);
+        }else if((bundle = open_bundle(workflowId)) != null && bundle.contains(id)){
+            /** cache miss, slice it out of the mapped bundle */
+            trace.disk_read(id, bundle.slice(id).remaining());
+            start = System.nanoTime();
+            instance = bundle.readObject(id, type);
+        }else {
+            /** cache miss and load the bytes from disk (or the write queue), add them in cache */
+            serialized = contents(Util.join(dir, id));
+            if (serialized == null) {
+                trace.not_found(id);
+                return null;
+            }
+            trace.disk_read(id, serialized.length);
+            if(cache_status){
+                cache.add(id, serialized);
+            }
+            start = System.nanoTime();
+            instance = Util.decode(serialized, type);
+        }
+        trace.deserialized(id, System.nanoTime() - start);
+        if(cache_status){
+            objects.add(id, version, instance);
+            if(versions.getOrDefault(id, 0L) != version){
+                /** registered again meanwhile: nothing will ask for this version */
+                objects.remove(id, version);
+            }
+        }
+        return instance;
+    }
+
+    /** the mapped bundle of workflowId, opened on first use; null if it is not packed */
+    private Bundle open_bundle(String workflowId){
+        return bundles.computeIfAbsent(workflowId, id -> {
+            File file = Util.join(bundle_dir, id);
+            byte[] pending = writer.pending(file);
+            if(pending != null){
+                /** not written yet: read the queued bytes from memory */
+                return pending == WriteBehind.DELETED ? null : Bundle.wrap(pending);
+            }
+            return file.exists() ? Bundle.open(file) : null;
+        });
+    }
+
+    /** a new definition of id is being registered: stale cached copies must not be used */
+    private long invalidate(String id){
+        long version = versions.merge(id, 1L, Long::sum);
+        if(cache_status){
+            cache.remove(id);
+            /** the superseded instance would hold its slot and its heap until evicted */
+            workflow_objects.remove(id, version - 1);
+        }
+        return version;
+    }
 }
@@ -0,0 +1,142 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Engine-wide counters and histograms, aggregated over every run of one Engine.
+ * It is a RunListener the engine always notifies, and a standard MBean that
+ * Engine.register_metrics publishes over JMX.
+ */
+public class EngineMetrics implements RunListener, EngineMetricsMBean {
+
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder failed_runs = new LongAdder();
+    private final LongAdder operators = new LongAdder();
+    private final LongAdder cache_hits = new LongAdder();
+    private final LongAdder cache_misses = new LongAdder();
+    private final LongAdder bytes_read = new LongAdder();
+    private final LongAdder deserialize_nanos = new LongAdder();
+    private final LongAdder not_found = new LongAdder();
+    private final LongAdder operator_cpu_nanos = new LongAdder();
+    /** in nanoseconds */
+    public final Histogram run_wall = new Histogram();
+    public final Histogram critical_path = new Histogram();
+    public final Histogram operator_wall = new Histogram();
+    public final Histogram queue_wait = new Histogram();
+
+    /** publish these metrics over JMX as WorkflowEngine:type=EngineMetrics,name=NAME */
+    public void register(String name){
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("WorkflowEngine:type=EngineMetrics,name=" + ObjectName.quote(name)));
+        } catch (JMException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    @Override
+    public void cache_lookup(String id, String tier, boolean hit) {
+        if(hit){
+            cache_hits.increment();
+        }else if("bytes".equals(tier)){
+            /** a miss of the object tier goes on to the bytes tier, only count the last one */
+            cache_misses.increment();
+        }
+    }
+
+    @Override
+    public void disk_read(String id, long bytes) {
+        bytes_read.add(bytes);
+    }
+
+    @Override
+    public void deserialized(String id, long nanos) {
+        deserialize_nanos.add(nanos);
+    }
+
+    @Override
+    public void not_found(String id) {
+        not_found.increment();
+    }
+
+    @Override
+    public void operator_finished(String workflowId, String operatorId, long queue_wait, long wall, long cpu) {
+        operators.increment();
+        operator_wall.record(wall);
+        this.queue_wait.record(queue_wait);
+        if(cpu > 0){
+            operator_cpu_nanos.add(cpu);
+        }
+    }
+
+    @Override
+    public void run_finished(String workflowId, RunStats stats, Throwable failure) {
+        runs.increment();
+        if(failure != null){
+            failed_runs.increment();
+        }
+        run_wall.record(stats.wall_nanos);
+        critical_path.record(stats.critical_path_nanos);
+    }
+
+    public long getRuns() {
+        return runs.sum();
+    }
+
+    public long getFailedRuns() {
+        return failed_runs.sum();
+    }
+
+    public long getOperatorsExecuted() {
+        return operators.sum();
+    }
+
+    public long getCacheHits() {
+        return cache_hits.sum();
+    }
+
+    public long getCacheMisses() {
+        return cache_misses.sum();
+    }
+
+    public long getBytesRead() {
+        return bytes_read.sum();
+    }
+
+    public long getDeserializeMicros() {
+        return deserialize_nanos.sum() / 1000;
+    }
+
+    public long getNotFound() {
+        return not_found.sum();
+    }
+
+    public long getRunP50Micros() {
+        return run_wall.percentile(50) / 1000;
+    }
+
+    public long getRunP99Micros() {
+        return run_wall.percentile(99) / 1000;
+    }
+
+    public long getCriticalPathP99Micros() {
+        return critical_path.percentile(99) / 1000;
+    }
+
+    public long getOperatorP50Micros() {
+        return operator_wall.percentile(50) / 1000;
+    }
+
+    public long getOperatorP99Micros() {
+        return operator_wall.percentile(99) / 1000;
+    }
+
+    public long getOperatorCpuMicros() {
+        return operator_cpu_nanos.sum() / 1000;
+    }
+
+    public long getQueueWaitP99Micros() {
+        return queue_wait.percentile(99) / 1000;
+    }
+}
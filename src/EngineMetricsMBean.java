@@ -0,0 +1,36 @@
+/**
+ * The counters and histograms of EngineMetrics as seen over JMX.
+ * Times are in microseconds, percentiles are upper bounds of power of two buckets.
+ */
+public interface EngineMetricsMBean {
+
+    long getRuns();
+
+    long getFailedRuns();
+
+    long getOperatorsExecuted();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getBytesRead();
+
+    long getDeserializeMicros();
+
+    long getNotFound();
+
+    long getRunP50Micros();
+
+    long getRunP99Micros();
+
+    long getCriticalPathP99Micros();
+
+    long getOperatorP50Micros();
+
+    long getOperatorP99Micros();
+
+    long getOperatorCpuMicros();
+
+    long getQueueWaitP99Micros();
+}
@@ -3,15 +3,31 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.ObjectName;
 
 public class EngineTest {
+    private Engine engine;
+
     @Before
     public void setup() {
-        Engine.init(4096 * 4);
+        engine = new Engine(4096 * 4);
     }
 
     @Test
@@ -29,6 +45,55 @@ public class EngineTest {
         Util.serialize(wf);
     }
 
+    @Test
+    public void compiled_graph_test() {
+        /** the compiled graph agrees with the Graph it was built from */
+        Graph graph = new Graph(7);
+        int[][] edges = {{0, 2}, {1, 2}, {5, 4}, {2, 4}, {2, 3}, {1, 3}, {3, 5}, {0, 5}, {1, 6}, {3, 6}, {5, 6}};
+        for (int[] edge : edges) {
+            graph.addEdge(edge[0], edge[1]);
+        }
+        CompiledGraph compiled = graph.compile();
+        assertEquals(7, compiled.vertexCount());
+        for (int v = 0; v < 7; v++) {
+            assertEquals(graph.inDegree(v), compiled.inDegree(v));
+            assertEquals(graph.outDegree(v), compiled.outDegree(v));
+            ArrayList<Integer> dependencies = graph.dependencies(v);
+            for (int i = 0; i < dependencies.size(); i++) {
+                assertEquals((int) dependencies.get(i), compiled.dependency(v, i));
+            }
+        }
+        List<Integer> order = graph.topologicalSort();
+        assertEquals(order.size(), compiled.orderLength());
+        for (int i = 0; i < order.size(); i++) {
+            assertEquals((int) order.get(i), compiled.order(i));
+        }
+    }
+
+    @Test
+    public void cache_eviction_test() {
+        /** three 100 byte entries in a cache that only holds two:
+         *  the least recently used one is evicted and the bytes are refunded exactly */
+        Cache cache = new Cache(2 * (32 + 1 + 100));
+        cache.add("a", new byte[100]);
+        cache.add("b", new byte[100]);
+        assertEquals(0, cache.remaining_capacity());
+        cache.update("a");
+        cache.add("c", new byte[100]);
+        assertNotNull(cache.find("a"));
+        assertNull(cache.find("b"));
+        assertNotNull(cache.find("c"));
+        assertEquals(0, cache.remaining_capacity());
+
+        /** replacing an entry charges only the difference, oversized entries are not cached */
+        cache.add("c", new byte[50]);
+        assertEquals(50, cache.remaining_capacity());
+        cache.add("d", new byte[1000]);
+        assertNull(cache.find("d"));
+        cache.flush();
+        assertEquals(cache.capacity, cache.remaining_capacity());
+    }
+
     @Test
     public void simple_register_test() throws Exception {
         /** simple workflow oper001 + oper022 -> oper003 */
@@ -45,10 +110,10 @@ public class EngineTest {
         dependencies.add(new Tuple("oper002", "oper003"));
 
         /** execute register_workflow*/
-        Engine.register_workflow(workflow_id, operators, dependencies);
+        engine.register_workflow(workflow_id, operators, dependencies);
 
         /** check if workflow successfully stored in disk and the recovered value matches */
-        File workflow_file = Util.join(Engine.WORKFLOW_DIR, workflow_id);
+        File workflow_file = Util.join(engine.workflow_dir, workflow_id);
         assertTrue(workflow_file.exists());
 
         if (!workflow_file.exists()) {
@@ -71,16 +136,17 @@ public class EngineTest {
 
         /** check if all the operators are stored succesfully */
         for (String oper_id : operators.keySet()) {
-            File operator_file = Util.join(Engine.OPERATOR_DIR, oper_id);
+            String hash = workflow.operator_hashes.get(dict.indexOf(oper_id));
+            assertEquals(Util.sha1(Util.serialize(operators.get(oper_id))), hash);
+            File operator_file = Util.join(engine.operator_dir, hash);
             assertTrue(operator_file.exists());
             if (!operator_file.exists()) {
                 return;
             }
-            Operator operate = Util.readObject(operator_file, Operator.class);
+            Operator operate = new Operator(oper_id, Util.readObject(operator_file, Callable.class));
 
             /** check if all operator's attribute retains the same function */
             ArrayList<Result> result = new ArrayList<>();
-            assertEquals(operate.operatorId, oper_id);
             if (oper_id == "oper003") {
                 Result result1 = new Result("oper001", 1);
                 Result result2 = new Result("oper002", 2);
@@ -94,9 +160,9 @@ public class EngineTest {
 
     @Test
     public void simple_execute_test() throws Exception {
-        /*Engine.cache.flush(); */
+        /*engine.cache.flush(); */
         String workflow_id = "wf001";
-        ArrayList<Result> execution_result = Engine.execute_workflow(workflow_id);
+        ArrayList<Result> execution_result = engine.execute_workflow(workflow_id);
         /**check the result of execution */
         assertEquals(execution_result.get(0).payload, 3);
     }
@@ -141,8 +207,8 @@ public class EngineTest {
         dependencies.add(new Tuple("oper012", "oper017"));
         dependencies.add(new Tuple("oper014", "oper017"));
         dependencies.add(new Tuple("oper016", "oper017"));
-        Engine.register_workflow(workflow_id, operators, dependencies);
-        ArrayList<Result> results = Engine.execute_workflow("wf002");
+        engine.register_workflow(workflow_id, operators, dependencies);
+        ArrayList<Result> results = engine.execute_workflow("wf002");
         System.out.println((int) results.get(0).payload);
         System.out.println((int) results.get(1).payload);
         assertTrue((int) results.get(0).payload == 9 || (int) results.get(0).payload == 13);
@@ -157,8 +223,8 @@ public class EngineTest {
         Callable<Integer> oper001 = (x) -> 1;
         operators.put("oper021", oper001);
         ArrayList<Tuple> dependencies = new ArrayList<>();
-        Engine.register_workflow(workflow_id, operators, dependencies);
-        ArrayList<Result> results = Engine.execute_workflow("wf003");
+        engine.register_workflow(workflow_id, operators, dependencies);
+        ArrayList<Result> results = engine.execute_workflow("wf003");
         assertTrue((int) results.get(0).payload == 1);
     }
 
@@ -168,8 +234,1351 @@ public class EngineTest {
         String workflow_id = "wf004";
         HashMap<String, Callable> operators = new HashMap<>();
         ArrayList<Tuple> dependencies = new ArrayList<>();
-        Engine.register_workflow(workflow_id, operators, dependencies);
-        ArrayList<Result> results = Engine.execute_workflow("wf004");
+        engine.register_workflow(workflow_id, operators, dependencies);
+        ArrayList<Result> results = engine.execute_workflow("wf004");
         assertTrue(results.size() == 0);
     }
+
+    @Test
+    public void parallel_execute_test() throws Exception {
+        /** two independent slow operators feeding a third one:
+         *  run in parallel the workflow should take about one sleep, not two */
+        String workflow_id = "wf005";
+        HashMap<String, Callable> operators = new HashMap<>();
+        Callable<Integer> oper001 = (x) -> { Thread.sleep(300); return 1; };
+        Callable<Integer> oper002 = (x) -> { Thread.sleep(300); return 2; };
+        Callable<Integer> oper003 = (x) -> (int) (x.get(0)).getPayload() + (int) (x.get(1)).getPayload();
+        operators.put("oper031", oper001);
+        operators.put("oper032", oper002);
+        operators.put("oper033", oper003);
+        ArrayList<Tuple> dependencies = new ArrayList<>();
+        dependencies.add(new Tuple("oper031", "oper033"));
+        dependencies.add(new Tuple("oper032", "oper033"));
+        engine.register_workflow(workflow_id, operators, dependencies);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            long start = System.currentTimeMillis();
+            ArrayList<Result> results = engine.execute_workflow(workflow_id, executor);
+            long elapsed = System.currentTimeMillis() - start;
+            assertEquals(1, results.size());
+            assertEquals(3, results.get(0).payload);
+            assertTrue(elapsed < 550);
+
+            /** the parallel mode returns the sinks in the same order as the sequential one */
+            ArrayList<Result> sequential = engine.execute_workflow("wf002");
+            ArrayList<Result> parallel = engine.execute_workflow("wf002", executor);
+            assertEquals(sequential.size(), parallel.size());
+            for (int i = 0; i < sequential.size(); i++) {
+                assertEquals(sequential.get(i).operatorId, parallel.get(i).operatorId);
+                assertEquals(sequential.get(i).payload, parallel.get(i).payload);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /** set by the slow operator of parallel_failure_test once it is done */
+    static volatile boolean slow_finished;
+
+    @Test
+    public void parallel_failure_test() throws Exception {
+        /** a failed parallel run returns only once its other operators are done with the results */
+        String workflow_id = "wf027";
+        HashMap<String, Callable> operators = new HashMap<>();
+        Callable<Integer> oper001 = (x) -> { Thread.sleep(50); throw new IllegalStateException("oper228 failed"); };
+        Callable<Integer> oper002 = (x) -> { Thread.sleep(300); slow_finished = true; return 2; };
+        Callable<Integer> oper003 = (x) -> 3;
+        operators.put("oper228", oper001);
+        operators.put("oper229", oper002);
+        operators.put("oper230", oper003);
+        ArrayList<Tuple> dependencies = new ArrayList<>();
+        dependencies.add(new Tuple("oper228", "oper230"));
+        dependencies.add(new Tuple("oper229", "oper230"));
+        engine.register_workflow(workflow_id, operators, dependencies);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        slow_finished = false;
+        try {
+            engine.execute_workflow(workflow_id, executor);
+            fail("the failure of oper228 should be rethrown");
+        } catch (IllegalStateException excp) {
+            assertEquals("oper228 failed", excp.getMessage());
+        }
+        assertTrue(slow_finished);
+
+        /** an executor that takes no more tasks fails the run instead of hanging it */
+        executor.shutdown();
+        try {
+            engine.execute_workflow(workflow_id, executor);
+            fail("a shut down executor should reject the run");
+        } catch (RejectedExecutionException excp) {
+            /** expected */
+        }
+    }
+
+    @Test
+    public void object_cache_test() throws Exception {
+        /** a warm run is served from the live instances, without the bytes */
+        String workflow_id = "wf006";
+        HashMap<String, Callable> operators = new HashMap<>();
+        Callable<Integer> oper001 = (x) -> 4;
+        operators.put("oper041", oper001);
+        engine.register_workflow(workflow_id, operators, new ArrayList<>());
+        engine.cache.flush();
+        assertEquals(4, engine.execute_workflow(workflow_id).get(0).payload);
+
+        /** registering the same ids again never returns the old instances */
+        Callable<Integer> oper002 = (x) -> 5;
+        operators.put("oper041", oper002);
+        engine.workflow_objects.flush();
+        engine.register_workflow(workflow_id, operators, new ArrayList<>());
+        engine.register_workflow(workflow_id, operators, new ArrayList<>());
+        assertEquals(5, engine.execute_workflow(workflow_id).get(0).payload);
+        /** the superseded definitions don't stay behind in the object tier */
+        assertEquals(1, engine.workflow_objects.size());
+
+        /** a cold object tier reloads from disk */
+        engine.workflow_objects.flush();
+        engine.operator_objects.flush();
+        assertEquals(5, engine.execute_workflow(workflow_id).get(0).payload);
+        assertEquals(1, engine.workflow_objects.size());
+        assertEquals(1, engine.operator_objects.size());
+    }
+
+    @Test
+    public void concurrent_execute_test() throws Exception {
+        /** many request threads share one engine and a cache too small for all entries */
+        Engine shared = new Engine(2048);
+        ExecutorService requests = Executors.newFixedThreadPool(8);
+        try {
+            ArrayList<Future<ArrayList<Result>>> runs = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                String workflow_id = i % 2 == 0 ? "wf001" : "wf002";
+                runs.add(requests.submit(() -> shared.execute_workflow(workflow_id)));
+            }
+            for (int i = 0; i < runs.size(); i++) {
+                ArrayList<Result> results = runs.get(i).get();
+                assertEquals(i % 2 == 0 ? 1 : 2, results.size());
+            }
+            assertTrue(shared.cache.remaining_capacity() >= 0);
+        } finally {
+            requests.shutdown();
+        }
+    }
+
+    @Test
+    public void independent_engines_test() throws Exception {
+        /** two engines with their own storage roots do not see each other's workflows */
+        File root = Files.createTempDirectory("engine").toFile();
+        Engine other = new Engine(root, 4096);
+        HashMap<String, Callable> operators = new HashMap<>();
+        Callable<Integer> oper001 = (x) -> 7;
+        operators.put("oper051", oper001);
+        other.register_workflow("wf007", operators, new ArrayList<>());
+        assertTrue(Util.join(other.workflow_dir, "wf007").exists());
+        assertFalse(Util.join(engine.workflow_dir, "wf007").exists());
+        assertEquals(7, other.execute_workflow("wf007").get(0).payload);
+        assertNull(engine.execute_workflow("wf007"));
+    }
+
+    /** runs of wf008 executing at this moment, and the most observed at once */
+    static final AtomicInteger running = new AtomicInteger();
+    static final AtomicInteger most_running = new AtomicInteger();
+
+    @Test
+    public void run_scheduler_test() throws Exception {
+        /** at most 2 runs of the same workflow at once, the rest queue up */
+        HashMap<String, Callable> operators = new HashMap<>();
+        Callable<Integer> oper001 = (x) -> {
+            most_running.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(100);
+            running.decrementAndGet();
+            return 8;
+        };
+        operators.put("oper061", oper001);
+        engine.register_workflow("wf008", operators, new ArrayList<>());
+
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        RunScheduler scheduler = new RunScheduler(engine, workers, 4, 2, 8, RunScheduler.Policy.ABORT);
+        try {
+            ArrayList<CompletableFuture<ArrayList<Result>>> runs = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                runs.add(scheduler.submit("wf008"));
+            }
+            for (CompletableFuture<ArrayList<Result>> run : runs) {
+                assertEquals(8, run.get().get(0).payload);
+            }
+            assertTrue(most_running.get() <= 2);
+
+            /** two slots and two queue places are taken: the fifth submission is rejected */
+            RunScheduler small = new RunScheduler(engine, workers, 2, 2, 2, RunScheduler.Policy.ABORT);
+            runs.clear();
+            for (int i = 0; i < 4; i++) {
+                runs.add(small.submit("wf008"));
+            }
+            try {
+                small.submit("wf008");
+                fail();
+            } catch (RejectedExecutionException excp) {
+                assertEquals(2, small.queued());
+            }
+
+            /** the runs queued at shutdown still complete, later submissions are rejected */
+            small.shutdown();
+            try {
+                small.submit("wf008");
+                fail();
+            } catch (RejectedExecutionException excp) {
+                assertEquals("run scheduler is shut down", excp.getMessage());
+            }
+            for (CompletableFuture<ArrayList<Result>> run : runs) {
+                assertEquals(8, run.get().get(0).payload);
+            }
+        } finally {
+            scheduler.shutdown();
+            workers.shutdown();
+        }
+    }
+
+    @Test
+    public void content_addressed_operator_test() throws Exception {
+        /** two workflows reuse the id "oper071" for different code, and share one piece of code */
+        File root = Files.createTempDirectory("engine").toFile();
+        Engine store = new Engine(root, 4096);
+        Callable<Integer> shared = (x) -> 10;
+        Callable<Integer> first = (x) -> (int) x.get(0).getPayload() + 1;
+        Callable<Integer> second = (x) -> (int) x.get(0).getPayload() + 2;
+        ArrayList<Tuple> dependencies = new ArrayList<>();
+        dependencies.add(new Tuple("oper070", "oper071"));
+
+        HashMap<String, Callable> operators = new HashMap<>();
+        operators.put("oper070", shared);
+        operators.put("oper071", first);
+        store.register_workflow("wf009", operators, dependencies);
+        operators.put("oper071", second);
+        store.register_workflow("wf010", operators, dependencies);
+
+        /** the shared code is stored once, neither oper071 overwrites the other */
+        assertEquals(3, store.operator_dir.list().length);
+        assertEquals(11, store.execute_workflow("wf009").get(0).payload);
+        assertEquals(12, store.execute_workflow("wf010").get(0).payload);
+        assertEquals("oper071", store.execute_workflow("wf010").get(0).operatorId);
+
+        /** registering again does not rewrite unchanged operators */
+        File shared_file = Util.join(store.operator_dir, Util.sha1(Util.serialize(shared)));
+        shared_file.setLastModified(0);
+        store.register_workflow("wf010", operators, dependencies);
+        assertEquals(0, shared_file.lastModified());
+    }
+
+    @Test
+    public void packed_bundle_test() throws Exception {
+        /** a packed workflow is one bundle file, and a cold engine runs it from the mapping */
+        File root = Files.createTempDirectory("engine").toFile();
+        Engine packed = new Engine(root, 4096, true);
+        HashMap<String, Callable> operators = new HashMap<>();
+        Callable<Integer> oper001 = (x) -> 20;
+        Callable<Integer> oper002 = (x) -> 22;
+        Callable<Integer> oper003 = (x) -> (int) (x.get(0)).getPayload() + (int) (x.get(1)).getPayload();
+        operators.put("oper081", oper001);
+        operators.put("oper082", oper002);
+        operators.put("oper083", oper003);
+        ArrayList<Tuple> dependencies = new ArrayList<>();
+        dependencies.add(new Tuple("oper081", "oper083"));
+        dependencies.add(new Tuple("oper082", "oper083"));
+        packed.register_workflow("wf011", operators, dependencies);
+        assertEquals(0, packed.operator_dir.list().length);
+        assertEquals(0, packed.workflow_dir.list().length);
+
+        Bundle bundle = Bundle.open(Util.join(packed.bundle_dir, "wf011"));
+        Workflow workflow = bundle.readObject("wf011", Workflow.class);
+        for (String hash : workflow.operator_hashes) {
+            assertTrue(bundle.contains(hash));
+        }
+
+        Engine cold = new Engine(root, 4096, true);
+        assertEquals(42, cold.execute_workflow("wf011").get(0).payload);
+        assertEquals(0, cold.cache.capacity - cold.cache.remaining_capacity());
+    }
+
+    /** outside input of wf012, and how often its downstream operators ran */
+    static final AtomicInteger seed = new AtomicInteger();
+    static final AtomicInteger changed_runs = new AtomicInteger();
+    static final AtomicInteger unchanged_runs = new AtomicInteger();
+
+    @Test
+    public void memoized_execute_test() throws Exception {
+        /** oper091 -> oper092 and oper093 -> oper094: only oper091's input changes between runs */
+        HashMap<String, Callable> operators = new HashMap<>();
+        Callable<Integer> oper001 = (x) -> seed.get();
+        Callable<Integer> oper002 = (x) -> { changed_runs.incrementAndGet(); return (int) x.get(0).getPayload() * 2; };
+        Callable<Integer> oper003 = (x) -> 3;
+        Callable<Integer> oper004 = (x) -> { unchanged_runs.incrementAndGet(); return (int) x.get(0).getPayload() * 2; };
+        operators.put("oper091", oper001);
+        operators.put("oper092", oper002);
+        operators.put("oper093", oper003);
+        operators.put("oper094", oper004);
+        ArrayList<Tuple> dependencies = new ArrayList<>();
+        dependencies.add(new Tuple("oper091", "oper092"));
+        dependencies.add(new Tuple("oper093", "oper094"));
+        engine.register_workflow("wf012", operators, dependencies);
+        engine.memoize = true;
+
+        seed.set(1);
+        engine.execute_workflow("wf012");
+        String unchanged = Util.sha1(Util.serialize(oper004));
+        long estimate = engine.history.estimate(unchanged);
+        assertTrue(estimate > 0);
+        seed.set(2);
+        ArrayList<Result> results = engine.execute_workflow("wf012");
+        int changed = results.get(0).operatorId.equals("oper092") ? 0 : 1;
+        assertEquals(4, results.get(changed).payload);
+        assertEquals(6, results.get(1 - changed).payload);
+        assertEquals(2, changed_runs.get());
+        assertEquals(1, unchanged_runs.get());
+        assertEquals(1, engine.memo.hits());
+
+        /** the parallel executor reuses the same results */
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            engine.execute_workflow("wf012", executor);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(2, changed_runs.get());
+        assertEquals(1, unchanged_runs.get());
+        /** a reused result says nothing of how long the operator takes */
+        assertEquals(estimate, engine.history.estimate(unchanged));
+    }
+
+    /** a payload counting how often it is serialized */
+    static class Counted implements Comparable<Counted>, java.io.Serializable {
+        static final AtomicInteger writes = new AtomicInteger();
+
+        @Override
+        public int compareTo(Counted other) {
+            return 0;
+        }
+
+        private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
+            writes.incrementAndGet();
+            out.defaultWriteObject();
+        }
+    }
+
+    @Test
+    public void memo_key_test() throws Exception {
+        /** oper231 -> oper232 -> oper233: oper233 is keyed by the key of oper232's result,
+         *  whose payload is never serialized for it */
+        HashMap<String, Callable> operators = new HashMap<>();
+        ArrayList<Tuple> dependencies = new ArrayList<>();
+        operators.put("oper231", (Callable<Integer>) (x) -> 1);
+        operators.put("oper232", (Callable<Counted>) (x) -> new Counted());
+        operators.put("oper233", (Callable<Integer>) (x) -> 5);
+        dependencies.add(new Tuple("oper231", "oper232"));
+        dependencies.add(new Tuple("oper232", "oper233"));
+        engine.register_workflow("wf028", operators, dependencies);
+        engine.memoize = true;
+        Counted.writes.set(0);
+        assertEquals(5, engine.execute_workflow("wf028").get(0).payload);
+        long hits = engine.memo.hits();
+        assertEquals(5, engine.execute_workflow("wf028").get(0).payload);
+        assertEquals(hits + 2, engine.memo.hits());
+        assertEquals(0, Counted.writes.get());
+    }
+
+    @Test
+    public void release_results_test() throws Exception {
+        /** a pipeline of 6 operators each producing a 100000 character string:
+         *  a result is dropped once its consumer ran, so at most 2 are alive at a time */
+        HashMap<String, Callable> operators = new HashMap<>();
+        ArrayList<Tuple> dependencies = new ArrayList<>();
+        Callable<String> source = (x) -> new String(new char[100000]);
+        Callable<String> stage = (x) -> new String(((String) x.get(0).getPayload()).toCharArray());
+        operators.put("oper100", source);
+        for (int i = 1; i < 6; i++) {
+            operators.put("oper10" + i, stage);
+            dependencies.add(new Tuple("oper10" + (i - 1), "oper10" + i));
+        }
+        engine.register_workflow("wf013", operators, dependencies);
+
+        RunStats stats = new RunStats();
+        ArrayList<Result> results = engine.execute_workflow("wf013", stats);
+        assertEquals(100000, ((String) results.get(0).payload).length());
+        assertTrue(stats.peak_live_bytes >= 200000);
+        assertTrue(stats.peak_live_bytes < 300000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            RunStats parallel = new RunStats();
+            engine.execute_workflow("wf013", executor, parallel);
+            assertEquals(stats.peak_live_bytes, parallel.peak_live_bytes);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void run_trace_test() throws Exception {
+        /** oper110 -> oper111 (sleeps 20ms) -> oper112 */
+        HashMap<String, Callable> operators = new HashMap<>();
+        ArrayList<Tuple> dependencies = new ArrayList<>();
+        operators.put("oper110", (Callable<String>) (x) -> "a");
+        operators.put("oper111", (Callable<String>) (x) -> {
+            Thread.sleep(20);
+            return x.get(0).getPayload() + "b";
+        });
+        operators.put("oper112", (Callable<String>) (x) -> x.get(0).getPayload() + "c");
+        dependencies.add(new Tuple("oper110", "oper111"));
+        dependencies.add(new Tuple("oper111", "oper112"));
+        engine.register_workflow("wf014", operators, dependencies);
+
+        AtomicInteger finished_operators = new AtomicInteger();
+        ArrayList<RunStats> finished_runs = new ArrayList<>();
+        RunListener listener = new RunListener() {
+            @Override
+            public void operator_finished(String workflowId, String operatorId, long queue_wait, long wall, long cpu) {
+                finished_operators.incrementAndGet();
+            }
+
+            @Override
+            public synchronized void run_finished(String workflowId, RunStats stats, Throwable failure) {
+                finished_runs.add(stats);
+            }
+        };
+        engine.add_listener(listener);
+
+        RunStats stats = new RunStats();
+        assertEquals("abc", engine.execute_workflow("wf014", stats).get(0).payload);
+        assertEquals("wf014", stats.workflowId);
+        int slow = stats.operators.indexOf("oper111");
+        assertTrue(stats.operator_wall_nanos[slow] >= 20_000_000L);
+        assertTrue(stats.critical_path_nanos >= stats.operator_wall_nanos[slow]);
+        assertTrue(stats.wall_nanos >= stats.critical_path_nanos);
+        /** registering seeded the object cache: every lookup hits */
+        assertEquals(4, stats.cache_hits);
+        assertEquals(0, stats.cache_misses);
+        assertEquals(3, finished_operators.get());
+
+        /** a fresh engine on the same files reads everything from disk */
+        Engine cold = new Engine(4096*4);
+        RunStats cold_stats = new RunStats();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            assertEquals("abc", cold.execute_workflow("wf014", executor, cold_stats).get(0).payload);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(4, cold_stats.cache_misses);
+        assertTrue(cold_stats.bytes_read > 0);
+        assertTrue(cold_stats.deserialize_nanos > 0);
+        assertTrue(cold_stats.operator_wall_nanos[cold_stats.operators.indexOf("oper111")] >= 20_000_000L);
+
+        /** a run that can't be prepared counts as failed */
+        engine.execute_workflow("wf_missing");
+        engine.remove_listener(listener);
+        engine.execute_workflow("wf014");
+        assertEquals(2, finished_runs.size());
+        assertEquals(3, engine.metrics.getRuns());
+        assertEquals(1, engine.metrics.getFailedRuns());
+        assertEquals(6, engine.metrics.getOperatorsExecuted());
+        assertTrue(engine.metrics.getOperatorP99Micros() >= 20_000);
+
+        engine.register_metrics("run_trace_test");
+        ObjectName name = new ObjectName("WorkflowEngine:type=EngineMetrics,name=" + ObjectName.quote("run_trace_test"));
+        assertEquals(3L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Runs"));
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+
+    /** the most records produced by oper120 and not yet consumed by oper121 at any time */
+    private static final AtomicInteger in_flight = new AtomicInteger();
+    private static final AtomicInteger most_in_flight = new AtomicInteger();
+
+    @Test
+    public void streaming_execute_test() throws Exception {
+        /** oper120 streams 1 .. 10000 -> oper121 doubles each -> oper122 sums them;
+         *  oper123, an ordinary operator, counts what oper121 produced */
+        HashMap<String, Callable> operators = new HashMap<>();
+        ArrayList<Tuple> dependencies = new ArrayList<>();
+        operators.put("oper120", (StreamingCallable) (in, out) -> {
+            for (int i = 1; i <= 10000; i++) {
+                most_in_flight.accumulateAndGet(in_flight.incrementAndGet(), Math::max);
+                out.put(i);
+            }
+        });
+        operators.put("oper121", (StreamingCallable) (in, out) -> {
+            for (Object x = in.get(0).take(); x != null; x = in.get(0).take()) {
+                in_flight.decrementAndGet();
+                out.put(2 * (int) x);
+            }
+        });
+        operators.put("oper122", (StreamingCallable) (in, out) -> {
+            long sum = 0;
+            for (Object x = in.get(0).take(); x != null; x = in.get(0).take()) {
+                sum += (int) x;
+            }
+            out.put(sum);
+        });
+        operators.put("oper123", (Callable<Integer>) (x) -> ((Records) x.get(0).getPayload()).size());
+        dependencies.add(new Tuple("oper120", "oper121"));
+        dependencies.add(new Tuple("oper121", "oper122"));
+        dependencies.add(new Tuple("oper121", "oper123"));
+        engine.register_workflow("wf015", operators, dependencies);
+
+        ArrayList<Result> results = engine.execute_streaming("wf015", 16);
+        assertEquals(2, results.size());
+        for (Result r : results) {
+            if (r.operatorId.equals("oper122")) {
+                assertEquals(100010000L, ((Records) r.payload).get(0));
+            } else {
+                assertEquals(10000, r.payload);
+            }
+        }
+        /** the producer is held back by the buffer between it and oper121 */
+        assertTrue(most_in_flight.get() <= 16 + 2);
+
+        /** anywhere else the stream is materialized, with the same results */
+        ArrayList<Result> materialized = engine.execute_workflow("wf015");
+        assertEquals(results.get(0).operatorId, materialized.get(0).operatorId);
+        assertEquals(results.get(0).payload.toString(), materialized.get(0).payload.toString());
+        assertEquals(results.get(1).payload.toString(), materialized.get(1).payload.toString());
+    }
+
+    @Test
+    public void streaming_from_ordinary_test() throws Exception {
+        /** oper126, an ordinary operator, returns 1 .. 1000 as one payload;
+         *  oper127 streams through it, 4 records at a time */
+        HashMap<String, Callable> operators = new HashMap<>();
+        ArrayList<Tuple> dependencies = new ArrayList<>();
+        operators.put("oper126", (Callable<Records>) (x) -> {
+            ArrayList<Object> records = new ArrayList<>();
+            for (int i = 1; i <= 1000; i++) {
+                records.add(i);
+            }
+            return new Records(records);
+        });
+        operators.put("oper127", (StreamingCallable) (in, out) -> {
+            long sum = 0;
+            long count = 0;
+            for (Object x = in.get(0).take(); x != null; x = in.get(0).take()) {
+                sum += (int) x;
+                count++;
+            }
+            out.put(sum);
+            out.put(count);
+        });
+        dependencies.add(new Tuple("oper126", "oper127"));
+        engine.register_workflow("wf026", operators, dependencies);
+
+        for (int i = 0; i < 20; i++) {
+            /** each record exactly once, though there are more than the buffer holds */
+            Records result = (Records) engine.execute_streaming("wf026", 4).get(0).payload;
+            assertEquals(500500L, result.get(0));
+            assertEquals(1000L, result.get(1));
+        }
+    }
+
+    @Test
+    public void streaming_failure_test() throws Exception {
+        /** a stage that fails stops the whole pipeline, even a producer blocked on a full channel */
+        HashMap<String, Callable> operators = new HashMap<>();
+        ArrayList<Tuple> dependencies = new ArrayList<>();
+        operators.put("oper124", (StreamingCallable) (in, out) -> {
+            for (int i = 0; i < 1000; i++) {
+                out.put(i);
+            }
+        });
+        operators.put("oper125", (StreamingCallable) (in, out) -> {
+            in.get(0).take();
+            throw new IllegalStateException("bad record");
+        });
+        dependencies.add(new Tuple("oper124", "oper125"));
+        engine.register_workflow("wf016", operators, dependencies);
+        try {
+            engine.execute_streaming("wf016", 4);
+            fail();
+        } catch (IllegalStateException excp) {
+            assertEquals("bad record", excp.getMessage());
+        }
+        assertEquals(1, engine.metrics.getFailedRuns());
+    }
+
+    /** adds 10 to its input, counting the calls it receives */
+    static class AddTen implements BatchCallable<Integer> {
+        static final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public Integer call(ArrayList<Result> input) {
+            calls.incrementAndGet();
+            return (Integer) input.get(0).getPayload() + 10;
+        }
+
+        @Override
+        public ArrayList<Integer> call_batch(ArrayList<ArrayList<Result>> inputs) {
+            calls.incrementAndGet();
+            ArrayList<Integer> ret = new ArrayList<>();
+            for (ArrayList<Result> input : inputs) {
+                ret.add((Integer) input.get(0).getPayload() + 10);
+            }
+            return ret;
+        }
+    }
+
+    @Test
+    public void batch_execute_test() throws Exception {
+        /** oper130 doubles the seed -> oper131 adds 10 -> oper132 negates */
+        HashMap<String, Callable> operators = new HashMap<>();
+        ArrayList<Tuple> dependencies = new ArrayList<>();
+        operators.put("oper130", (Callable<Integer>) (x) -> 2 * (Integer) x.get(0).getPayload());
+        operators.put("oper131", new AddTen());
+        operators.put("oper132", (Callable<Integer>) (x) -> -(Integer) x.get(0).getPayload());
+        dependencies.add(new Tuple("oper130", "oper131"));
+        dependencies.add(new Tuple("oper131", "oper132"));
+        engine.register_workflow("wf017", operators, dependencies);
+
+        ArrayList<Integer> seeds = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            seeds.add(i);
+        }
+        AddTen.calls.set(0);
+        ArrayList<ArrayList<Result>> results = engine.execute_batch("wf017", seeds);
+        assertEquals(100, results.size());
+        assertEquals(100, AddTen.calls.get());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(-(2 * i + 10), results.get(i).get(0).payload);
+        }
+
+        /** vectorized: the BatchCallable is called once for the whole batch */
+        AddTen.calls.set(0);
+        ArrayList<ArrayList<Result>> vectorized = engine.execute_batch("wf017", seeds, true);
+        assertEquals(1, AddTen.calls.get());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(results.get(i).get(0).payload, vectorized.get(i).get(0).payload);
+        }
+        /** one run per batch, not per instance */
+        assertEquals(2, engine.metrics.getRuns());
+        assertNull(engine.execute_batch("wf_missing", seeds));
+    }
+
+    /** operators in the order they started */
+    private static final List<String> started = java.util.Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void priority_schedule_test() throws Exception {
+        /** oper140 -> oper141 -> oper142, two fast operators on a chain,
+         *  and oper140 -> oper143, one slow operator; one thread for all of them */
+        HashMap<String, Callable> operators = new HashMap<>();
+        ArrayList<Tuple> dependencies = new ArrayList<>();
+        operators.put("oper140", (Callable<String>) (x) -> "s");
+        operators.put("oper141", (Callable<String>) (x) -> {
+            started.add("oper141");
+            return "a";
+        });
+        operators.put("oper142", (Callable<String>) (x) -> "b");
+        operators.put("oper143", (Callable<String>) (x) -> {
+            started.add("oper143");
+            Thread.sleep(30);
+            return "c";
+        });
+        dependencies.add(new Tuple("oper140", "oper141"));
+        dependencies.add(new Tuple("oper141", "oper142"));
+        dependencies.add(new Tuple("oper140", "oper143"));
+        engine.register_workflow("wf018", operators, dependencies);
+
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            /** no history yet: the longer chain goes first */
+            started.clear();
+            engine.execute_workflow("wf018", executor);
+            assertEquals(List.of("oper141", "oper143"), started);
+            /** the first run showed oper143 alone takes longer than the chain */
+            started.clear();
+            engine.execute_workflow("wf018", executor);
+            assertEquals(List.of("oper143", "oper141"), started);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void workflow_codec_test() throws Exception {
+        /** 1000 operators sharing 2 codes, each depending on up to 2 earlier ones */
+        ArrayList<String> operator_ids = new ArrayList<>();
+        ArrayList<String> hashes = new ArrayList<>();
+        Graph graph = new Graph(1000);
+        for (int i = 0; i < 1000; i++) {
+            operator_ids.add("oper" + i);
+            hashes.add(Util.sha1(new byte[]{(byte) (i % 2)}));
+            if (i > 0) {
+                graph.addEdge(i / 2, i);
+                graph.addEdge(i - 1, i);
+            }
+        }
+        Workflow wf = new Workflow("wf_codec", operator_ids, hashes, graph);
+        byte[] encoded = Util.encode(wf);
+        byte[] serialized = Util.serialize(wf);
+        assertTrue(encoded.length * 4 < serialized.length);
+
+        for (byte[] bytes : new byte[][]{encoded, serialized}) {
+            /** the codec's format and Java serialization are both read back */
+            Workflow decoded = Util.decode(bytes, Workflow.class);
+            assertEquals("wf_codec", decoded.workflowId);
+            assertEquals(operator_ids, decoded.workflow_dictionary);
+            assertEquals(hashes, decoded.operator_hashes);
+            assertEquals(graph.topologicalSort(), decoded.dag.topologicalSort());
+            for (int v = 0; v < 1000; v++) {
+                assertEquals(graph.successors(v), decoded.dag.successors(v));
+                assertEquals(graph.dependencies(v), decoded.dag.dependencies(v));
+            }
+        }
+
+        encoded[3] = 99;
+        try {
+            Util.decode(encoded, Workflow.class);
+            fail();
+        } catch (IllegalArgumentException excp) {
+            assertEquals("unsupported workflow format version 99", excp.getMessage());
+        }
+    }
+
+    @Test
+    public void write_behind_test() throws Exception {
+        File root = Files.createTempDirectory("write_behind").toFile();
+        Engine store = new Engine(root, 4096 * 4);
+        store.write_behind(true);
+        HashMap<String, Callable> operators = new HashMap<>();
+        ArrayList<Tuple> dependencies = new ArrayList<>();
+        operators.put("oper150", (Callable<String>) (x) -> "x");
+        operators.put("oper151", (Callable<String>) (x) -> x.get(0).getPayload() + "y");
+        dependencies.add(new Tuple("oper150", "oper151"));
+        for (int i = 0; i < 100; i++) {
+            store.register_workflow("wf" + (i % 10), operators, dependencies);
+        }
+
+        /** visible right away, even once the caches forgot it */
+        store.workflow_objects.flush();
+        store.operator_objects.flush();
+        store.cache.flush();
+        assertEquals("xy", store.execute_workflow("wf3").get(0).payload);
+
+        /** 10 workflows sharing 2 operators, and no temporary file left behind */
+        store.flush();
+        assertTrue(store.writer.files_written() >= 12);
+        assertEquals(10, Util.join(root, "workflow").list().length);
+        assertEquals(2, Util.join(root, "operator").list().length);
+        assertEquals("xy", new Engine(root, 4096 * 4).execute_workflow("wf9").get(0).payload);
+
+        /** packed bundles go through the queue as well */
+        Engine packed = new Engine(root, 4096 * 4, true);
+        packed.write_behind(true);
+        packed.register_workflow("wf3", operators, dependencies);
+        assertEquals("xy", packed.execute_workflow("wf3").get(0).payload);
+        packed.write_behind(false);
+        assertFalse(Util.join(root, "workflow", "wf3").exists());
+        assertTrue(Util.join(root, "bundle", "wf3").exists());
+
+        /** a failed write stays queued and is written once the failure has been reported */
+        WriteBehind writer = new WriteBehind();
+        File missing = Util.join(root, "missing");
+        File file = Util.join(missing, "file");
+        writer.write(file, new byte[]{1});
+        try {
+            writer.flush();
+            fail("the write into a missing directory should fail");
+        } catch (IllegalStateException excp) {
+            /** expected */
+        }
+        assertArrayEquals(new byte[]{1}, writer.pending(file));
+        missing.mkdirs();
+        writer.flush();
+        assertArrayEquals(new byte[]{1}, Util.readContents(file));
+        assertNull(writer.pending(file));
+        assertEquals(1, missing.list().length);
+
+        /** a direct write drops the failed queued one, which must not replace it later */
+        Util.join(missing, "file").delete();
+        missing.delete();
+        writer.write(file, new byte[]{2});
+        try {
+            writer.flush();
+            fail("the write into a missing directory should fail");
+        } catch (IllegalStateException excp) {
+            /** expected */
+        }
+        missing.mkdirs();
+        writer.cancel(file);
+        Util.writeContents(file, new byte[]{3});
+        assertNull(writer.pending(file));
+        writer.flush();
+        assertArrayEquals(new byte[]{3}, Util.readContents(file));
+
+        /** switching write-behind off fails while a queued write does, and it stays on */
+        File blocked = Util.join(root, "workflow", "wf7");
+        Util.join(root, "workflow", "wf7").delete();
+        Util.join(blocked, "in_the_way").mkdirs();
+        operators.put("oper151", (Callable<String>) (x) -> x.get(0).getPayload() + "1");
+        store.register_workflow("wf7", operators, dependencies);
+        try {
+            store.write_behind(false);
+            fail("the workflow file can't replace a directory");
+        } catch (IllegalStateException excp) {
+            /** expected */
+        }
+        assertEquals("x1", store.execute_workflow("wf7").get(0).payload);
+        Util.join(blocked, "in_the_way").delete();
+        blocked.delete();
+        store.write_behind(false);
+        /** synchronous from now on, the failed write is not replayed over it */
+        operators.put("oper151", (Callable<String>) (x) -> x.get(0).getPayload() + "2");
+        store.register_workflow("wf7", operators, dependencies);
+        store.flush();
+        assertEquals("x2", new Engine(root, 4096 * 4).execute_workflow("wf7").get(0).payload);
+        assertEquals("x2", store.execute_workflow("wf7").get(0).payload);
+    }
+
+    @Test
+    public void update_workflow_test() throws Exception {
+        for (boolean packed : new boolean[]{false, true}) {
+            File root = Files.createTempDirectory("update").toFile();
+            Engine store = new Engine(root, 4096 * 4, packed);
+            /** oper160 -> oper161 */
+            HashMap<String, Callable> operators = new HashMap<>();
+            ArrayList<Tuple> dependencies = new ArrayList<>();
+            operators.put("oper160", (Callable<String>) (x) -> "a");
+            operators.put("oper161", (Callable<String>) (x) -> x.get(0).getPayload() + "b");
+            dependencies.add(new Tuple("oper160", "oper161"));
+            store.register_workflow("wf019", operators, dependencies);
+            assertEquals("ab", store.execute_workflow("wf019").get(0).payload);
+
+            /** oper160 -> oper161 -> oper162 */
+            assertTrue(store.add_operator("wf019", "oper162", (Callable<String>) (x) -> x.isEmpty() ? "c" : x.get(0).getPayload() + "c"));
+            assertFalse(store.add_operator("wf019", "oper162", (Callable<String>) (x) -> "d"));
+            assertTrue(store.add_edge("wf019", new Tuple("oper161", "oper162")));
+            assertEquals("abc", store.execute_workflow("wf019").get(0).payload);
+
+            /** oper162 -> oper160 would close a cycle */
+            assertFalse(store.add_edge("wf019", new Tuple("oper162", "oper160")));
+            assertFalse(store.add_edge("wf_missing", new Tuple("oper160", "oper161")));
+
+            /** oper160 -> oper162, oper161 gone */
+            assertTrue(store.remove_operator("wf019", "oper161"));
+            assertTrue(store.add_edge("wf019", new Tuple("oper160", "oper162")));
+            assertEquals("ac", store.execute_workflow("wf019").get(0).payload);
+
+            /** oper160 and oper162 are both sinks */
+            assertTrue(store.remove_edge("wf019", new Tuple("oper160", "oper162")));
+            assertFalse(store.remove_edge("wf019", new Tuple("oper160", "oper162")));
+            ArrayList<Result> results = store.execute_workflow("wf019");
+            assertEquals(2, results.size());
+
+            /** the updates were persisted, and only the workflow was rewritten */
+            Engine reopened = new Engine(root, 4096 * 4, packed);
+            assertEquals(results.size(), reopened.execute_workflow("wf019").size());
+            if (!packed) {
+                assertEquals(3, Util.join(root, "operator").list().length);
+            }
+        }
+    }
+
+    /** a payload that can't be serialized: sizing it must not try */
+    static class Unserializable implements java.io.Serializable {
+        long a;
+        int b;
+        Object c;
+
+        private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
+            throw new java.io.NotSerializableException("sized by serializing");
+        }
+    }
+
+    @Test
+    public void sizeof_test() {
+        /** estimates come from the shapes of the payloads, nothing is serialized */
+        assertEquals(40, Util.sizeof(new Unserializable()));
+        assertEquals(16 + 3 * 24, Util.sizeof(new Object[]{1, 2L, 3.0}));
+        assertEquals(16 + 2 * 10, Util.sizeof(new char[10]));
+        HashMap<String, Integer> map = new HashMap<>();
+        map.put("a", 1);
+        assertEquals(48 + 32 + 41 + 16, Util.sizeof(map));
+        Sized sized = () -> 1 << 20;
+        assertEquals(1 << 20, Util.sizeof(sized));
+    }
+
+    /** an LruPolicy counting the accesses it is told about */
+    static class CountingPolicy extends LruPolicy {
+        int accessed;
+        int missed;
+
+        @Override
+        public void accessed(String id) {
+            accessed++;
+            super.accessed(id);
+        }
+
+        @Override
+        public void missed(String id) {
+            missed++;
+        }
+    }
+
+    @Test
+    public void cache_access_recorded_test() throws Exception {
+        /** 4 threads hitting and missing at once: every access reaches the policy, in order */
+        CountingPolicy policy = new CountingPolicy();
+        Cache cache = new Cache(100 * 1000, policy);
+        byte[] data = new byte[100];
+        for (int i = 0; i < 10; i++) {
+            cache.add("key" + i, data);
+        }
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    cache.find("key" + (i % 20));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        /** the next decision of the cache delivers whatever is still buffered */
+        cache.add("last", data);
+        assertEquals(cache.hits(), policy.accessed);
+        assertEquals(cache.misses(), policy.missed);
+        assertEquals(40000, policy.accessed);
+    }
+
+    @Test
+    public void eviction_policy_test() throws Exception {
+        /** 10 hot operators used over and over, then a scan of 200 cold ones used once,
+         *  each of them 1000 bytes in a cache of 20 */
+        byte[] data = new byte[1000 - 32 - 8];
+        for (EvictionPolicy policy : new EvictionPolicy[]{new LruPolicy(), new SlruPolicy(), new TinyLfuPolicy()}) {
+            Cache cache = new Cache(20 * 1000, policy);
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < 10; i++) {
+                    String id = String.format("hot%05d", i);
+                    if (cache.find(id) == null) {
+                        cache.add(id, data);
+                    }
+                }
+            }
+            for (int i = 0; i < 200; i++) {
+                String id = String.format("cold%04d", i);
+                if (cache.find(id) == null) {
+                    cache.add(id, data);
+                }
+            }
+            assertTrue(cache.remaining_capacity() >= 0);
+            int resident = 0;
+            for (int i = 0; i < 10; i++) {
+                if (cache.find(String.format("hot%05d", i)) != null) {
+                    resident++;
+                }
+            }
+            if (policy instanceof LruPolicy) {
+                /** the scan flushed them all */
+                assertEquals(0, resident);
+            } else {
+                assertEquals(policy.name(), 10, resident);
+            }
+            assertEquals(260, cache.hits() + cache.misses());
+            assertTrue(cache.toString().startsWith(policy.name()));
+        }
+    }
+
+    @Test
+    public void distributed_execute_test() throws Exception {
+        /** two chains joined at the end: oper170 -> oper171 -> oper172 and oper173 -> oper174 -> oper175,
+         *  then oper176 joining oper172 and oper175 */
+        HashMap<String, Callable> operators = new HashMap<>();
+        ArrayList<Tuple> dependencies = new ArrayList<>();
+        operators.put("oper170", (Callable<String>) (x) -> "a");
+        operators.put("oper171", (Callable<String>) (x) -> x.get(0).getPayload() + "b");
+        operators.put("oper172", (Callable<String>) (x) -> x.get(0).getPayload() + "c");
+        operators.put("oper173", (Callable<String>) (x) -> "d");
+        operators.put("oper174", (Callable<String>) (x) -> x.get(0).getPayload() + "e");
+        operators.put("oper175", (Callable<String>) (x) -> x.get(0).getPayload() + "f");
+        operators.put("oper176", (Callable<String>) (x) -> x.get(0).getPayload() + "|" + x.get(1).getPayload());
+        dependencies.add(new Tuple("oper170", "oper171"));
+        dependencies.add(new Tuple("oper171", "oper172"));
+        dependencies.add(new Tuple("oper173", "oper174"));
+        dependencies.add(new Tuple("oper174", "oper175"));
+        dependencies.add(new Tuple("oper172", "oper176"));
+        dependencies.add(new Tuple("oper175", "oper176"));
+        engine.register_workflow("wf020", operators, dependencies);
+
+        /** each chain stays on one worker, only the join crosses */
+        Workflow wf = Util.readObject(Util.join(engine.workflow_dir, "wf020"), Workflow.class);
+        int[] partition = Coordinator.partition(wf.compiled, 2);
+        int crossing = 0;
+        for (Tuple edge : dependencies) {
+            int from = wf.workflow_dictionary.indexOf(edge.x);
+            int to = wf.workflow_dictionary.indexOf(edge.y);
+            if (partition[from] != partition[to]) {
+                crossing++;
+            }
+        }
+        assertEquals(1, crossing);
+
+        /** one worker in this JVM, one in its own */
+        Worker local = new Worker(0).start();
+        Process remote = new ProcessBuilder("java", "-cp", System.getProperty("java.class.path"), "Worker", "0")
+                .redirectErrorStream(true).start();
+        try {
+            BufferedReader out = new BufferedReader(new InputStreamReader(remote.getInputStream()));
+            String listening = out.readLine();
+            assertTrue(listening, listening.startsWith("worker listening on "));
+            int port = Integer.parseInt(listening.substring("worker listening on ".length()));
+            List<InetSocketAddress> workers = List.of(
+                    new InetSocketAddress("localhost", local.port()), new InetSocketAddress("localhost", port));
+
+            ArrayList<Result> results = engine.execute_distributed("wf020", workers);
+            assertEquals(1, results.size());
+            assertTrue(List.of("abc|def", "def|abc").contains(results.get(0).payload));
+            assertEquals(engine.execute_workflow("wf020").get(0).payload, results.get(0).payload);
+
+            /** a result may cross partitions before the last worker is connected */
+            Worker second = new Worker(0).start();
+            try {
+                List<InetSocketAddress> local_workers = List.of(
+                        new InetSocketAddress("localhost", local.port()), new InetSocketAddress("localhost", second.port()));
+                for (int i = 0; i < 30; i++) {
+                    assertEquals(results.get(0).payload, engine.execute_distributed("wf020", local_workers).get(0).payload);
+                }
+            } finally {
+                second.close();
+            }
+
+            /** the exception of an operator fails the run */
+            operators.put("oper174", (Callable<String>) (x) -> {
+                throw new IllegalStateException("oper174 failed");
+            });
+            engine.register_workflow("wf020", operators, dependencies);
+            try {
+                engine.execute_distributed("wf020", workers);
+                fail();
+            } catch (IllegalStateException excp) {
+                assertEquals("oper174 failed", excp.getMessage());
+            }
+        } finally {
+            remote.destroy();
+            local.close();
+        }
+    }
+
+    static final AtomicInteger checkpointed_runs = new AtomicInteger();
+    static volatile boolean last_fails = true;
+
+    @Test
+    public void checkpoint_resume_test() throws Exception {
+        /** oper180 -> oper181 -> oper182, the last one failing at first */
+        File root = Files.createTempDirectory("checkpoint").toFile();
+        Engine store = new Engine(root, 4096 * 4);
+        store.checkpoint = true;
+        HashMap<String, Callable> operators = new HashMap<>();
+        ArrayList<Tuple> dependencies = new ArrayList<>();
+        operators.put("oper180", (Callable<String>) (x) -> {
+            checkpointed_runs.incrementAndGet();
+            return "a";
+        });
+        operators.put("oper181", (Callable<String>) (x) -> {
+            checkpointed_runs.incrementAndGet();
+            return x.get(0).getPayload() + "b";
+        });
+        operators.put("oper182", (Callable<String>) (x) -> {
+            if (last_fails) {
+                throw new IllegalStateException("oper182 failed");
+            }
+            return x.get(0).getPayload() + "c";
+        });
+        dependencies.add(new Tuple("oper180", "oper181"));
+        dependencies.add(new Tuple("oper181", "oper182"));
+        store.register_workflow("wf021", operators, dependencies);
+        checkpointed_runs.set(0);
+        last_fails = true;
+        try {
+            store.execute_workflow("wf021");
+            fail();
+        } catch (IllegalStateException excp) {
+            assertEquals(2, checkpointed_runs.get());
+        }
+        File log = Util.join(store.checkpoint_dir, "wf021");
+        assertTrue(log.exists());
+
+        /** a record torn by a crash is ignored */
+        Files.write(log.toPath(), new byte[]{0, 0, 0, 99, 1, 2}, java.nio.file.StandardOpenOption.APPEND);
+
+        /** the retry, here from another engine, only runs the operator that failed */
+        last_fails = false;
+        RunStats stats = new RunStats();
+        Engine restarted = new Engine(root, 4096 * 4);
+        restarted.checkpoint = true;
+        assertEquals("abc", restarted.execute_workflow("wf021", stats).get(0).payload);
+        assertEquals(2, checkpointed_runs.get());
+        assertEquals(2, stats.operators_resumed);
+        assertFalse(log.exists());
+
+        /** a completed run leaves nothing to resume */
+        assertEquals("abc", restarted.execute_workflow("wf021").get(0).payload);
+        assertEquals(4, checkpointed_runs.get());
+    }
+
+    @Test
+    public void spill_result_test() throws Exception {
+        /** oper190 fans out to oper191 .. oper193, 20000 characters each, joined by oper194 */
+        File root = Files.createTempDirectory("spill").toFile();
+        Engine store = new Engine(root, 4096 * 4);
+        HashMap<String, Callable> operators = new HashMap<>();
+        ArrayList<Tuple> dependencies = new ArrayList<>();
+        operators.put("oper190", (Callable<String>) (x) -> "a".repeat(20000));
+        operators.put("oper191", (Callable<String>) (x) -> ((String) x.get(0).getPayload()).replace('a', 'b'));
+        operators.put("oper192", (Callable<String>) (x) -> ((String) x.get(0).getPayload()).replace('a', 'c'));
+        operators.put("oper193", (Callable<String>) (x) -> ((String) x.get(0).getPayload()).replace('a', 'd'));
+        operators.put("oper194", (Callable<String>) (x) -> {
+            StringBuilder ret = new StringBuilder();
+            for (Result result : x) {
+                String payload = (String) result.getPayload();
+                ret.append(payload.charAt(0)).append(payload.length());
+            }
+            return ret.toString();
+        });
+        for (String id : new String[]{"oper191", "oper192", "oper193"}) {
+            dependencies.add(new Tuple("oper190", id));
+            dependencies.add(new Tuple(id, "oper194"));
+        }
+        store.register_workflow("wf022", operators, dependencies);
+        Object expected = store.execute_workflow("wf022").get(0).payload;
+
+        /** room for two of the four large results */
+        store.result_budget = 45000;
+        RunStats stats = new RunStats();
+        assertEquals(expected, store.execute_workflow("wf022", stats).get(0).payload);
+        assertTrue(stats.spills > 0);
+        assertTrue(stats.spilled_bytes >= 20000 * stats.spills);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            RunStats parallel = new RunStats();
+            assertEquals(expected, store.execute_workflow("wf022", pool, parallel).get(0).payload);
+            assertTrue(parallel.spills > 0);
+        } finally {
+            pool.shutdown();
+        }
+
+        /** the scratch files are gone with their runs */
+        assertEquals(0, store.scratch_dir.list().length);
+    }
+
+    /** a big payload that can't be serialized, so it can't be spilled either */
+    static class Unspillable implements Comparable<Unspillable>, Sized {
+        @Override
+        public int compareTo(Unspillable other) {
+            return 0;
+        }
+
+        @Override
+        public long sizeof() {
+            return 1 << 20;
+        }
+    }
+
+    @Test
+    public void spill_victim_test() throws Exception {
+        File scratch = Files.createTempDirectory("victims").toFile();
+        String big = "a".repeat(20000);
+
+        /** 0 -> 2 <- 1: the result that can't be serialized stays, the other one is spilled */
+        ResultStore store = new ResultStore(new CompiledGraph(3, new int[]{0, 1}, new int[]{2, 2}), null, 30000, scratch);
+        Result<Unspillable> unspillable = new Result<>("oper0", new Unspillable());
+        Result<String> spillable = new Result<>("oper1", big);
+        store.put(0, unspillable);
+        store.put(1, spillable);
+        assertSame(unspillable, store.get(0));
+        assertNotSame(spillable, store.get(1));
+        assertEquals(big, store.get(1).payload);
+        store.close();
+
+        /** A -> T, A -> X, B -> T, run in the order B A X T with only T wanted: X never runs,
+         *  so A and B are both next used by T and the larger one, A, is spilled */
+        CompiledGraph dag = new CompiledGraph(4, new int[]{0, 0, 1}, new int[]{2, 3, 2});
+        store = new ResultStore(dag, null, 30000, scratch);
+        store.restrict(new boolean[]{true, true, true, false}, new int[]{2});
+        Result<String> a = new Result<>("A", big + "a");
+        Result<String> b = new Result<>("B", big);
+        store.put(0, a);
+        store.put(1, b);
+        assertNotSame(a, store.get(0));
+        assertSame(b, store.get(1));
+        store.close();
+        assertEquals(0, scratch.list().length);
+    }
+
+    static final AtomicInteger target_runs = new AtomicInteger();
+
+    @Test
+    public void execute_targets_test() throws Exception {
+        /** oper200 -> oper201 -> oper202, oper200 -> oper203 and oper204 -> oper205:
+         *  three sinks, of which only oper202 is wanted, with the intermediate oper200 */
+        HashMap<String, Callable> operators = new HashMap<>();
+        ArrayList<Tuple> dependencies = new ArrayList<>();
+        operators.put("oper200", (Callable<String>) (x) -> {
+            target_runs.incrementAndGet();
+            return "a";
+        });
+        operators.put("oper201", (Callable<String>) (x) -> {
+            target_runs.incrementAndGet();
+            return x.get(0).getPayload() + "b";
+        });
+        operators.put("oper202", (Callable<String>) (x) -> {
+            target_runs.incrementAndGet();
+            return x.get(0).getPayload() + "c";
+        });
+        operators.put("oper203", (Callable<String>) (x) -> {
+            target_runs.incrementAndGet();
+            return x.get(0).getPayload() + "d";
+        });
+        operators.put("oper204", (Callable<String>) (x) -> {
+            target_runs.incrementAndGet();
+            return "e";
+        });
+        operators.put("oper205", (Callable<String>) (x) -> {
+            target_runs.incrementAndGet();
+            return x.get(0).getPayload() + "f";
+        });
+        dependencies.add(new Tuple("oper200", "oper201"));
+        dependencies.add(new Tuple("oper201", "oper202"));
+        dependencies.add(new Tuple("oper200", "oper203"));
+        dependencies.add(new Tuple("oper204", "oper205"));
+        engine.register_workflow("wf023", operators, dependencies);
+
+        target_runs.set(0);
+        ArrayList<Result> results = engine.execute_targets("wf023", List.of("oper202", "oper200"));
+        assertEquals(2, results.size());
+        assertEquals("abc", results.get(0).payload);
+        assertEquals("a", results.get(1).payload);
+        assertEquals(3, target_runs.get());
+
+        target_runs.set(0);
+        assertEquals("ef", engine.execute_targets("wf023", List.of("oper205")).get(0).payload);
+        assertEquals(2, target_runs.get());
+
+        assertNull(engine.execute_targets("wf023", List.of("oper206")));
+        assertNull(engine.execute_targets("wf024", List.of("oper200")));
+    }
+
+    @Test
+    public void cache_warm_up_test() throws Exception {
+        File root = Files.createTempDirectory("warm_up").toFile();
+        Engine store = new Engine(root, 4096 * 4);
+        assertEquals(0, (int) store.warmed_up.get());
+        HashMap<String, Callable> operators = new HashMap<>();
+        ArrayList<Tuple> dependencies = new ArrayList<>();
+        operators.put("oper210", (Callable<String>) (x) -> "a");
+        operators.put("oper211", (Callable<String>) (x) -> x.get(0).getPayload() + "b");
+        dependencies.add(new Tuple("oper210", "oper211"));
+        store.register_workflow("wf024", operators, dependencies);
+        /** as if it had been registered by an earlier engine: runs load it through the byte cache */
+        store.workflow_objects.flush();
+        store.operator_objects.flush();
+        for (int i = 0; i < 5; i++) {
+            store.execute_workflow("wf024");
+        }
+
+        /** the workflow and its two operators, the most used first */
+        store.save_manifest();
+        LinkedHashMap<String, long[]> hottest = CacheManifest.read(store.manifest_file);
+        assertEquals(3, hottest.size());
+        long previous = Long.MAX_VALUE;
+        for (long[] entry : hottest.values()) {
+            assertTrue(entry[0] <= previous);
+            previous = entry[0];
+        }
+
+        /** a restarted engine loads them in the background, its first run reads nothing from disk */
+        Engine restarted = new Engine(root, 4096 * 4);
+        assertEquals(3, (int) restarted.warmed_up.get());
+        RunStats stats = new RunStats();
+        assertEquals("ab", restarted.execute_workflow("wf024", stats).get(0).payload);
+        assertEquals(0, stats.cache_misses);
+        assertEquals(0, stats.bytes_read);
+
+        /** saved periodically as well */
+        assertTrue(store.manifest_file.delete());
+        store.save_manifest_every(10);
+        for (int i = 0; i < 500 && !store.manifest_file.exists(); i++) {
+            Thread.sleep(10);
+        }
+        store.save_manifest_every(0);
+        assertTrue(store.manifest_file.exists());
+        assertNull(store.manifest_error());
+
+        /** a failed save is kept for the caller, not printed */
+        assertTrue(store.manifest_file.delete());
+        assertTrue(Util.join(store.manifest_file, "in_the_way").mkdirs());
+        store.save_manifest_every(10);
+        for (int i = 0; i < 500 && store.manifest_error() == null; i++) {
+            Thread.sleep(10);
+        }
+        store.save_manifest_every(0);
+        assertNotNull(store.manifest_error());
+        assertEquals(0, store.manifest_file.getParentFile().list((dir, name) -> name.endsWith(".tmp")).length);
+    }
+
+    private static final HashMap<String, Thread> ran_on = new HashMap<>();
+
+    private static String ran(String id, String payload) {
+        synchronized (ran_on) {
+            ran_on.put(id, Thread.currentThread());
+        }
+        return payload;
+    }
+
+    @Test
+    public void chain_fusion_test() throws Exception {
+        /** oper220 -> oper221 -> oper222 -> oper223 is a chain, oper220 -> oper224 a branch */
+        HashMap<String, Callable> operators = new HashMap<>();
+        ArrayList<Tuple> dependencies = new ArrayList<>();
+        operators.put("oper220", (Callable<String>) (x) -> ran("oper220", "a"));
+        operators.put("oper221", (Callable<String>) (x) -> ran("oper221", x.get(0).getPayload() + "b"));
+        operators.put("oper222", (Callable<String>) (x) -> ran("oper222", x.get(0).getPayload() + "c"));
+        operators.put("oper223", (Callable<String>) (x) -> ran("oper223", x.get(0).getPayload() + "d"));
+        operators.put("oper224", (Callable<String>) (x) -> ran("oper224", x.get(0).getPayload() + "e"));
+        dependencies.add(new Tuple("oper220", "oper221"));
+        dependencies.add(new Tuple("oper221", "oper222"));
+        dependencies.add(new Tuple("oper222", "oper223"));
+        dependencies.add(new Tuple("oper220", "oper224"));
+        engine.register_workflow("wf025", operators, dependencies);
+
+        Workflow wf = Util.readObject(Util.join(engine.workflow_dir, "wf025"), Workflow.class);
+        int[] chain = new Plan(wf, new Operator[5], null, null, null, 0, null, null, null).chains();
+        ArrayList<String> ids = wf.workflow_dictionary;
+        assertEquals(-1, chain[ids.indexOf("oper220")]);
+        assertEquals(ids.indexOf("oper222"), chain[ids.indexOf("oper221")]);
+        assertEquals(ids.indexOf("oper223"), chain[ids.indexOf("oper222")]);
+        assertEquals(-1, chain[ids.indexOf("oper223")]);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            RunStats stats = new RunStats();
+            ArrayList<Result> results = engine.execute_workflow("wf025", pool, stats);
+            assertEquals(2, results.size());
+            ArrayList<Object> payloads = new ArrayList<>();
+            for (Result result : results) {
+                payloads.add(result.payload);
+            }
+            assertTrue(payloads.contains("abcd"));
+            assertTrue(payloads.contains("ae"));
+
+            /** the chain ran as one task, every operator of it timed on its own */
+            assertSame(ran_on.get("oper221"), ran_on.get("oper222"));
+            assertSame(ran_on.get("oper222"), ran_on.get("oper223"));
+            for (int v = 0; v < 5; v++) {
+                assertTrue(stats.operator_wall_nanos[v] > 0);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
 }
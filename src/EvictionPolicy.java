@@ -0,0 +1,39 @@
+/**
+ * Decides which entries a Cache keeps once its byte budget is exceeded.
+ *
+ * The Cache tells its policy about every entry it stores, reads and drops, and
+ * asks it for a victim while it is over budget. A policy may also refuse a new
+ * entry (admission) by naming that entry as the victim.
+ * The Cache serializes every call. Hits and misses are buffered by the lookups
+ * and delivered in the order they happened, before the Cache's next insert,
+ * removal or eviction, so every access reaches the policy. One may still name an
+ * entry the policy has already dropped (it was removed after it was found).
+ */
+public interface EvictionPolicy {
+
+    /** the name reported in the Cache's statistics */
+    String name();
+
+    /** called once by the Cache, before any other call, with its budget in bytes */
+    default void set_capacity(int capacity) {
+    }
+
+    /** id was stored (or replaced) and takes size bytes */
+    void inserted(String id, int size);
+
+    /** id was found in the cache */
+    void accessed(String id);
+
+    /** id was looked up and not found */
+    default void missed(String id) {
+    }
+
+    /** id was dropped by the Cache without being asked for, e.g. Cache.remove */
+    void removed(String id);
+
+    /** choose the entry to drop now and forget it; null if the policy holds nothing */
+    String evict();
+
+    /** forget every entry */
+    void clear();
+}
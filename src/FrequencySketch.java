@@ -0,0 +1,64 @@
+/**
+ * Approximate count of how often each id was looked up recently (a count-min sketch).
+ *
+ * DEPTH rows of 4 bit counters; an id increments one counter per row and its
+ * frequency is the smallest of them, which can only overestimate. After
+ * 10 x width increments every counter is halved, so old popularity fades and
+ * the counts describe recent traffic.
+ */
+public class FrequencySketch {
+
+    private static final int DEPTH = 4;
+    private static final int MAX = 15;
+    /** odd multipliers, one per row */
+    private static final int[] SEEDS = {0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F};
+
+    private final byte[][] counters;
+    private final int shift;
+    private final int sample_size;
+    private int additions;
+
+    /** a sketch of about width counters per row, rounded up to a power of two */
+    public FrequencySketch(int width){
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(16, width) - 1);
+        counters = new byte[DEPTH][1 << bits];
+        shift = 32 - bits;
+        sample_size = 10 * (1 << bits);
+    }
+
+    /** count one more use of id */
+    public void increment(String id){
+        int hash = id.hashCode();
+        boolean added = false;
+        for(int row = 0; row < DEPTH; row++){
+            int index = (hash * SEEDS[row]) >>> shift;
+            if(counters[row][index] < MAX){
+                counters[row][index]++;
+                added = true;
+            }
+        }
+        if(added && ++additions >= sample_size){
+            age();
+        }
+    }
+
+    /** estimated number of recent uses of id, at most 15 */
+    public int frequency(String id){
+        int hash = id.hashCode();
+        int ret = MAX;
+        for(int row = 0; row < DEPTH; row++){
+            ret = Math.min(ret, counters[row][(hash * SEEDS[row]) >>> shift]);
+        }
+        return ret;
+    }
+
+    /** halve every counter */
+    private void age(){
+        for(byte[] row : counters){
+            for(int i = 0; i < row.length; i++){
+                row[i] >>= 1;
+            }
+        }
+        additions /= 2;
+    }
+}
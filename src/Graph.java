@@ -1,10 +1,11 @@
 import java.io.Serializable;
 import java.util.LinkedList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Iterator;
 import java.util.Stack;
-import java.util.HashSet;
+import java.util.TreeSet;
 
 public class Graph implements Serializable, Iterable<Integer>  {
 
@@ -21,21 +22,89 @@ public class Graph implements Serializable, Iterable<Integer>  {
     }
 
     /** Adds a directed Edge (V1, V2) to the graph. That is, adds an edge
-       in ONE directions, from v1 to v2. */
+       in ONE directions, from v1 to v2. Adding it twice makes v2 depend on v1 twice. */
     public void addEdge(int v1, int v2) {
-        addEdge(v1, v2, 0);
+        adjLists[v1].add(new Edge(v1, v2));
     }
 
+    /** Returns a copy of the graph, which can be changed without changing this one. */
+    public Graph copy() {
+        Graph ret = new Graph(vertexCount);
+        for (int v = 0; v < vertexCount; v++) {
+            ret.adjLists[v].addAll(adjLists[v]);
+        }
+        return ret;
+    }
+
+    /** Adds a vertex without Edges and returns it, the highest vertex. */
+    public int addVertex() {
+        adjLists = Arrays.copyOf(adjLists, vertexCount + 1);
+        adjLists[vertexCount] = new LinkedList<Edge>();
+        return vertexCount++;
+    }
 
-    /** Adds a directed Edge (V1, V2) to the graph with weight WEIGHT. If the
-       Edge already exists, replaces the current Edge with a new Edge with
-       weight WEIGHT. */
-    private void addEdge(int v1, int v2, int weight) {
-        Edge e = new Edge(v1, v2, weight);
-        if (adjLists[v1].contains(e)){
-            adjLists[v1].remove(e);
+    /** Removes vertex V and every Edge from or to it. The vertices after V
+       are renumbered one lower, keeping their Edges in the same order. */
+    public void removeVertex(int v) {
+        LinkedList<Edge>[] lists = (LinkedList<Edge>[]) new LinkedList[vertexCount - 1];
+        for (int from = 0; from < vertexCount; from++) {
+            if (from == v) {
+                continue;
+            }
+            LinkedList<Edge> list = new LinkedList<Edge>();
+            for (Edge e : adjLists[from]) {
+                if (e.to != v) {
+                    list.add(new Edge(shift(e.from, v), shift(e.to, v)));
+                }
+            }
+            lists[shift(from, v)] = list;
+        }
+        adjLists = lists;
+        vertexCount--;
+    }
+
+    private static int shift(int vertex, int removed) {
+        return vertex > removed ? vertex - 1 : vertex;
+    }
+
+    /** Removes the Edge (V1, V2), the first one added if there are several.
+       Returns false if there is no such Edge. */
+    public boolean removeEdge(int v1, int v2) {
+        Iterator<Edge> iter = adjLists[v1].iterator();
+        while (iter.hasNext()) {
+            if (iter.next().to == v2) {
+                iter.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns whether there is a path from vertex FROM to vertex TO, visiting
+       only the vertices reachable from FROM. */
+    public boolean reachable(int from, int to) {
+        boolean[] visited = new boolean[vertexCount];
+        Stack<Integer> fringe = new Stack<Integer>();
+        fringe.push(from);
+        visited[from] = true;
+        while (!fringe.isEmpty()) {
+            int v = fringe.pop();
+            if (v == to) {
+                return true;
+            }
+            for (Edge e : adjLists[v]) {
+                if (!visited[e.to]) {
+                    visited[e.to] = true;
+                    fringe.push(e.to);
+                }
+            }
         }
-        adjLists[v1].add(e);
+        return false;
+    }
+
+    /** Returns the number of vertices. */
+    public int vertexCount() {
+        return vertexCount;
     }
 
     /** Returns the number of incoming Edges for vertex V. */
@@ -67,6 +136,15 @@ public class Graph implements Serializable, Iterable<Integer>  {
         }
         return ret;
     }
+    /** Returns the vertices that depend on vertex V, in the order the Edges were added */
+    public ArrayList<Integer> successors(int v){
+        ArrayList<Integer> ret = new ArrayList<>(adjLists[v].size());
+        for(Edge e : adjLists[v]){
+            ret.add(e.to);
+        }
+        return ret;
+    }
+
     /** Returns an Iterator that outputs the vertices of the graph in topological
        sorted order. */
     public Iterator<Integer> iterator() {
@@ -82,20 +160,42 @@ public class Graph implements Serializable, Iterable<Integer>  {
         return result;
     }
 
+    /** Returns the immutable CompiledGraph of the current vertices and Edges, in O(V + E). */
+    public CompiledGraph compile() {
+        int edgeCount = 0;
+        for (LinkedList<Edge> list : adjLists) {
+            edgeCount += list.size();
+        }
+        int[] from = new int[edgeCount];
+        int[] to = new int[edgeCount];
+        int e = 0;
+        for (LinkedList<Edge> list : adjLists) {
+            for (Edge edge : list) {
+                from[e] = edge.from;
+                to[e] = edge.to;
+                e++;
+            }
+        }
+        return new CompiledGraph(vertexCount, from, to);
+    }
+
     private class TopologicalIterator implements Iterator<Integer> {
 
         private Stack<Integer> fringe;
-        private Integer[] currentInDegree;
+        private int[] currentInDegree;
         private Integer currentVertex;
-        private HashSet<Integer> visited;
 
         TopologicalIterator() {
             fringe = new Stack<Integer>();
-            visited = new HashSet<Integer>();
-            currentInDegree = new Integer[adjLists.length];
+            /** count every in-degree in one pass over the Edges */
+            currentInDegree = new int[adjLists.length];
+            for (LinkedList<Edge> list : adjLists) {
+                for (Edge e : list) {
+                    currentInDegree[e.to]++;
+                }
+            }
             for (int i = 0; i < adjLists.length; i++) {
-                currentInDegree[i] = inDegree(i);
-                if (inDegree(i) == 0) {
+                if (currentInDegree[i] == 0) {
                     fringe.push(i);
                 }
             }
@@ -107,32 +207,34 @@ public class Graph implements Serializable, Iterable<Integer>  {
 
         public Integer next() {
             currentVertex = fringe.pop();
+            /** only the successors of the current vertex can reach in-degree 0,
+             * push them in ascending order */
+            TreeSet<Integer> released = new TreeSet<>();
             for (Edge e: adjLists[currentVertex]) {
                 currentInDegree[e.to]--;
-            }
-            visited.add(currentVertex);
-            for (int i = 0; i < adjLists.length; i++) {
-                if (!visited.contains(i) && !fringe.contains(i) && currentInDegree[i] == 0) {
-                    fringe.push(i);
+                if (currentInDegree[e.to] == 0) {
+                    released.add(e.to);
                 }
             }
+            for (int i : released) {
+                fringe.push(i);
+            }
             return currentVertex;
         }
     }
 
-    private class Edge implements Serializable{
+    /** static, so an Edge doesn't hold on to (and serialize a reference to) its Graph */
+    private static class Edge implements Serializable{
 
-        private int from;
-        private int to;
-        private int weight;
+        private final int from;
+        private final int to;
 
-        Edge(int from, int to, int weight) {
+        Edge(int from, int to) {
             this.from = from;
             this.to = to;
-            this.weight = weight;
         }
         public String toString() {
-            return "(" + from + ", " + to + ", weight = " + weight + ")";
+            return "(" + from + ", " + to + ")";
         }
     }
 }
\ No newline at end of file
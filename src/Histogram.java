@@ -0,0 +1,52 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values in power of two buckets:
+ * bucket b counts the values v with 2^(b-1) <= v < 2^b (bucket 0 counts 0).
+ * Recording is a couple of LongAdder increments, cheap enough for every operator call.
+ */
+public class Histogram {
+
+    private final LongAdder[] buckets = new LongAdder[65];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    public Histogram(){
+        for(int b = 0; b < buckets.length; b++){
+            buckets[b] = new LongAdder();
+        }
+    }
+
+    /** record one value, negative values count as 0 */
+    public void record(long value){
+        value = Math.max(0, value);
+        buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+        count.increment();
+        sum.add(value);
+    }
+
+    public long count(){
+        return count.sum();
+    }
+
+    public long sum(){
+        return sum.sum();
+    }
+
+    /** upper bound of the bucket holding the p-th percentile (0 < p <= 100), 0 if empty */
+    public long percentile(double p){
+        long total = count.sum();
+        if(total == 0){
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * p / 100);
+        long seen = 0;
+        for(int b = 0; b < buckets.length; b++){
+            seen += buckets[b].sum();
+            if(seen >= rank){
+                return b == 0 ? 0 : (b >= 63 ? Long.MAX_VALUE : (1L << b) - 1);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,49 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Least recently used: the entry evicted is the one that has gone unused the longest.
+ * It keeps what was used recently, e.g. workflows executed every day, but a single
+ * scan of cold entries can push every hot entry out.
+ */
+public class LruPolicy implements EvictionPolicy {
+
+    /** ids in access order, least recently used first */
+    private final LinkedHashMap<String, Integer> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Override
+    public String name() {
+        return "lru";
+    }
+
+    @Override
+    public void inserted(String id, int size) {
+        entries.put(id, size);
+    }
+
+    @Override
+    public void accessed(String id) {
+        entries.get(id);
+    }
+
+    @Override
+    public void removed(String id) {
+        entries.remove(id);
+    }
+
+    @Override
+    public String evict() {
+        Iterator<String> lru = entries.keySet().iterator();
+        if(!lru.hasNext()){
+            return null;
+        }
+        String victim = lru.next();
+        lru.remove();
+        return victim;
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+    }
+}
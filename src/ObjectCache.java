@@ -0,0 +1,109 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Second cache tier next to the byte-budget Cache: it keeps the already
+ * deserialized Workflow/Operator instances so a warm run does no deserialization.
+ * Entries are keyed by id plus a version stamp; registering an id again bumps its
+ * version, so an instance of an older definition can never be returned.
+ * Eviction is Least Recent Used over a fixed number of entries. Like Cache the
+ * entries are spread over independently locked stripes, each holding an equal
+ * share of the capacity, so many threads can look instances up at once.
+ */
+public class ObjectCache<T> {
+    public final int capacity;
+    private static final int STRIPES = 16;
+    private final ArrayList<LinkedHashMap<Key, T>> stripes;
+
+    /** initialize an ObjectCache holding at most capacity instances */
+    public ObjectCache(int capacity){
+        this.capacity = capacity;
+        int stripe_capacity = Math.max(1, capacity / STRIPES);
+        stripes = new ArrayList<>(STRIPES);
+        for(int i = 0; i < STRIPES; i++){
+            stripes.add(new LinkedHashMap<Key, T>(16, 0.75f, true){
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, T> eldest) {
+                    return size() > stripe_capacity;
+                }
+            });
+        }
+    }
+
+    /** find the instance of id at version, return null if it's a cache miss */
+    public T find(String id, long version){
+        Key key = new Key(id, version);
+        LinkedHashMap<Key, T> stripe = stripe_of(key);
+        synchronized (stripe){
+            return stripe.get(key);
+        }
+    }
+
+    /** add the instance of id at version */
+    public void add(String id, long version, T value){
+        Key key = new Key(id, version);
+        LinkedHashMap<Key, T> stripe = stripe_of(key);
+        synchronized (stripe){
+            stripe.put(key, value);
+        }
+    }
+
+    /** drop the instance of id at version, if it is cached */
+    public void remove(String id, long version){
+        Key key = new Key(id, version);
+        LinkedHashMap<Key, T> stripe = stripe_of(key);
+        synchronized (stripe){
+            stripe.remove(key);
+        }
+    }
+
+    /** number of cached instances */
+    public int size(){
+        int size = 0;
+        for(LinkedHashMap<Key, T> stripe : stripes){
+            synchronized (stripe){
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /** flush the cache */
+    public void flush(){
+        for(LinkedHashMap<Key, T> stripe : stripes){
+            synchronized (stripe){
+                stripe.clear();
+            }
+        }
+    }
+
+    private LinkedHashMap<Key, T> stripe_of(Key key){
+        return stripes.get((key.hashCode() & 0x7fffffff) % STRIPES);
+    }
+
+    private static final class Key {
+        private final String id;
+        private final long version;
+
+        Key(String id, long version){
+            this.id = id;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)){
+                return false;
+            }
+            Key other = (Key) o;
+            return version == other.version && id.equals(other.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, version);
+        }
+    }
+}
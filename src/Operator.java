@@ -15,4 +15,18 @@ public class Operator <T extends Comparable<T>> implements Serializable {
         T output_payload = (T) code.call(input);
         return new Result(operatorId,output_payload);
     }
+
+    /** execute a BatchCallable on the inputs of many instances in one call */
+    public ArrayList<Result> execute_batch(ArrayList<ArrayList<Result>> inputs) throws Exception {
+        ArrayList<T> output_payloads = ((BatchCallable) code).call_batch(inputs);
+        if(output_payloads.size() != inputs.size()){
+            throw new IllegalStateException(operatorId + " returned " + output_payloads.size()
+                    + " results for " + inputs.size() + " inputs");
+        }
+        ArrayList<Result> ret = new ArrayList<>(inputs.size());
+        for(T output_payload : output_payloads){
+            ret.add(new Result(operatorId,output_payload));
+        }
+        return ret;
+    }
 }
@@ -0,0 +1,31 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Running estimate of how long each operator code takes, from the runs so far.
+ * Keyed by the code hash, so an operator keeps its history across workflows and
+ * re-registrations until its code changes.
+ *
+ * The estimate is an exponentially weighted moving average giving the latest
+ * run a weight of 1/4: it follows a change of behaviour in a few runs and a
+ * single outlier moves it by a quarter.
+ */
+public class OperatorHistory {
+
+    /** Dictionary {code hash : estimated nanoseconds per call} */
+    private final ConcurrentHashMap<String, Long> estimates = new ConcurrentHashMap<>();
+
+    /** an operator with code hash took nanos */
+    public void record(String hash, long nanos){
+        estimates.merge(hash, nanos, (old, latest) -> old + (latest - old) / 4);
+    }
+
+    /** the estimated nanoseconds per call of code hash, -1 if it never ran */
+    public long estimate(String hash){
+        return estimates.getOrDefault(hash, -1L);
+    }
+
+    /** forget every estimate */
+    public void flush(){
+        estimates.clear();
+    }
+}
@@ -0,0 +1,235 @@
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Runs the operators of one workflow on an executor, scheduling an operator
+ * as soon as all of its dependencies have produced a Result.
+ * Independent operators (no path between them) therefore run concurrently and
+ * the run takes as long as the critical path instead of the sum of all operators.
+ *
+ * The executor is supplied by the caller: ForkJoinPool.commonPool() by default,
+ * Executors.newVirtualThreadPerTaskExecutor() on a JVM that has virtual threads.
+ *
+ * At most parallelism operators of a run are handed to the executor at once.
+ * The other ready operators wait in a priority queue, ordered by the estimated
+ * length of their longest path to a sink (Plan.ranks), so that the operators
+ * starting the critical path are not held up behind short branches.
+ *
+ * A linear chain (every operator the only dependency of the next, see Plan.chains) is
+ * fused into one task: its operators run back to back on one thread, each result handed
+ * straight to the next operator, instead of going through the queue and the executor
+ * at every hop. Each operator is still traced and its Result stored like any other.
+ */
+public class ParallelExecutor {
+
+    private final ExecutorService executor;
+    public final int parallelism;
+
+    /** an executor running as many operators at once as the pool has threads */
+    public ParallelExecutor(ExecutorService executor){
+        this(executor, parallelism(executor));
+    }
+
+    public ParallelExecutor(ExecutorService executor, int parallelism){
+        if(parallelism < 1){
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /** number of threads of the pool, the number of processors if it can't be told */
+    private static int parallelism(ExecutorService executor){
+        if(executor instanceof ForkJoinPool){
+            return ((ForkJoinPool) executor).getParallelism();
+        }else if(executor instanceof ThreadPoolExecutor){
+            return ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /** execute the workflow and return the results of its sink operators
+     *
+     * @param plan : the workflow to be executed, with its operators loaded
+     * @param stats : filled in with the figures of this run, may be null
+     * @return the sink results, in the same topological order execute_workflow uses
+     */
+    public ArrayList<Result> execute(Plan plan, RunStats stats) throws Exception {
+        Run run = new Run(plan, stats);
+        try {
+            run.start().await();
+            return run.results.sinks();
+        } finally {
+            /** after a failure operators may still be running: they use the store */
+            run.done.cancel(false);
+            run.quiesce();
+            run.results.close();
+        }
+    }
+
+    /** state of a single execution of a workflow */
+    private class Run {
+        private final Plan plan;
+        private final CompiledGraph dag;
+        /** number of dependencies of each vertex that have not finished yet */
+        private final AtomicIntegerArray pending;
+        /** number of vertices that have not finished yet */
+        private final AtomicInteger remaining;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        /** Dictionary {Operator : Result}; each result is stored before its successors
+         *  are released, which publishes it to their threads */
+        private final ResultStore results;
+        /** priority of every vertex, the higher the sooner */
+        private final long[] rank;
+        /** System.nanoTime() when each vertex became ready */
+        private final long[] ready_at;
+        /** the next operator of the chain of each vertex, -1 at the end of one */
+        private final int[] chain;
+        /** ready vertices not handed to the executor yet, highest rank first, then lowest vertex;
+         *  guarded by this like running */
+        private final PriorityQueue<Integer> ready;
+        /** number of vertices handed to the executor and not finished */
+        private int running;
+
+        Run(Plan plan, RunStats stats){
+            this.plan = plan;
+            this.dag = plan.dag;
+            int n = dag.vertexCount();
+            pending = new AtomicIntegerArray(n);
+            for(int v = 0; v < n; v++){
+                pending.set(v, dag.inDegree(v));
+            }
+            /** vertices on a cycle never become ready, they are not waited for */
+            remaining = new AtomicInteger(dag.orderLength());
+            results = plan.results(stats);
+            rank = plan.ranks();
+            chain = plan.chains();
+            ready_at = new long[n];
+            ready = new PriorityQueue<>((a, b) -> rank[a] != rank[b] ? Long.compare(rank[b], rank[a]) : Integer.compare(a, b));
+        }
+
+        /** schedule every vertex whose in-degree is zero */
+        Run start(){
+            if(dag.orderLength() == 0){
+                done.complete(null);
+            }
+            for(int v = 0; v < dag.vertexCount(); v++){
+                if(pending.get(v) == 0){
+                    schedule(v);
+                }
+            }
+            dispatch();
+            return this;
+        }
+
+        /** wait for the run to finish, rethrowing the first operator failure */
+        void await() throws Exception {
+            try {
+                done.get();
+            } catch (ExecutionException excp) {
+                Throwable cause = excp.getCause();
+                if(cause instanceof Exception){
+                    throw (Exception) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+
+        /** wait until no operator handed to the executor is still running */
+        synchronized void quiesce(){
+            boolean interrupted = false;
+            while(running > 0){
+                try {
+                    wait();
+                } catch (InterruptedException excp) {
+                    interrupted = true;
+                }
+            }
+            if(interrupted){
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /** node is ready to run, queue it by rank */
+        private synchronized void schedule(int node){
+            ready_at[node] = System.nanoTime();
+            ready.add(node);
+        }
+
+        /** hand the best ready vertices to the executor while fewer than parallelism run */
+        private void dispatch(){
+            while(true){
+                int node;
+                synchronized (this){
+                    /** once done, a previous operator failed: stop scheduling */
+                    if(done.isDone() || running >= parallelism || ready.isEmpty()){
+                        return;
+                    }
+                    node = ready.poll();
+                    running++;
+                }
+                long ready = ready_at[node];
+                try {
+                    executor.execute(() -> run(node, ready));
+                } catch (RejectedExecutionException excp) {
+                    finished();
+                    done.completeExceptionally(excp);
+                    return;
+                }
+            }
+        }
+
+        /** run node and the rest of its chain */
+        private void run(int node, long ready){
+            try {
+                ArrayList<Result> dependent_result = results.inputs(node);
+                RunTrace.Clock clock = chain[node] < 0 ? null : new RunTrace.Clock();
+                while(true){
+                    Result result = plan.execute(node, dependent_result, ready, clock);
+                    results.put(node, result);
+                    results.release_inputs(node);
+                    if(chain[node] < 0 || done.isDone()){
+                        break;
+                    }
+                    /** fused: the next operator only waits on this result, run it here */
+                    remaining.decrementAndGet();
+                    node = chain[node];
+                    dependent_result = new ArrayList<>(1);
+                    dependent_result.add(result);
+                    ready = System.nanoTime();
+                }
+            } catch (Throwable excp) {
+                done.completeExceptionally(excp);
+                finished();
+                return;
+            }
+            /** release the vertices that were only waiting on this one */
+            for(int k = 0; k < dag.outDegree(node); k++){
+                int next = dag.successor(node, k);
+                if(pending.decrementAndGet(next) == 0){
+                    schedule(next);
+                }
+            }
+            if(remaining.decrementAndGet() == 0){
+                done.complete(null);
+            }
+            /** the successors are queued first, so they compete for the freed slot */
+            finished();
+            dispatch();
+        }
+
+        /** a task handed to the executor is over */
+        private synchronized void finished(){
+            running--;
+            notifyAll();
+        }
+    }
+}
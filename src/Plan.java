@@ -0,0 +1,140 @@
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * A workflow prepared for one execution: its compiled graph and every operator
+ * already loaded, operators[node] being the operator of vertex node.
+ * Both the sequential and the parallel executor run a vertex through execute,
+ * so whatever happens around an operator call (memoization, tracing) is implemented once, here.
+ */
+public class Plan {
+
+    public final Workflow workflow;
+    public final CompiledGraph dag;
+    public final Operator[] operators;
+    /** memoized results of earlier runs, null if memoization is off */
+    private final ResultMemo memo;
+    /** telemetry of the run this plan was prepared for */
+    final RunTrace trace;
+    /** times of the operators in earlier runs, null if unknown */
+    private final OperatorHistory history;
+    /** heap budget of the run's results (0 for none) and where they spill, see ResultStore */
+    private final long result_budget;
+    private final File scratch_dir;
+    /** the vertices whose results were asked for and the ones they depend on, see
+     *  Engine.execute_targets; null if the whole workflow runs. operators[v] is null outside cone */
+    final int[] targets;
+    final boolean[] cone;
+
+    Plan(Workflow workflow, Operator[] operators, ResultMemo memo, RunTrace trace, OperatorHistory history,
+         long result_budget, File scratch_dir, int[] targets, boolean[] cone){
+        this.workflow = workflow;
+        this.dag = workflow.compiled;
+        this.operators = operators;
+        this.memo = memo;
+        this.trace = trace;
+        this.history = history;
+        this.result_budget = result_budget;
+        this.scratch_dir = scratch_dir;
+        this.targets = targets;
+        this.cone = cone;
+    }
+
+    /** a store for the results of one run of the plan, within its budget */
+    ResultStore results(RunStats stats){
+        ResultStore store = new ResultStore(dag, stats, result_budget, scratch_dir);
+        if(cone != null){
+            store.restrict(cone, targets);
+        }
+        return store;
+    }
+
+    /** the priority of every vertex for list scheduling: the estimated time of the
+     *  longest path from the vertex to a sink, the vertex included.
+     *  An operator that never ran is assumed to take the mean time of those that did
+     *  (1 if none did, which ranks vertices by the number of operators left on the path) */
+    long[] ranks(){
+        int n = dag.vertexCount();
+        long[] weight = new long[n];
+        long known = 0;
+        long total = 0;
+        for(int v = 0; v < n; v++){
+            weight[v] = history == null ? -1 : history.estimate(workflow.operator_hashes.get(v));
+            if(weight[v] >= 0){
+                known++;
+                total += weight[v];
+            }
+        }
+        long unknown = known == 0 ? 1 : Math.max(1, total / known);
+        long[] rank = new long[n];
+        /** successors come after a vertex in topological order, so walk it backwards */
+        for(int i = dag.orderLength() - 1; i >= 0; i--){
+            int node = dag.order(i);
+            long after = 0;
+            for(int k = 0; k < dag.outDegree(node); k++){
+                after = Math.max(after, rank[dag.successor(node, k)]);
+            }
+            rank[node] = (weight[node] >= 0 ? weight[node] : unknown) + after;
+        }
+        return rank;
+    }
+
+    /** the linear chains of the plan, fused so that each runs as one task: chain[v] is the
+     *  only successor of v if v is its only dependency (the two always run back to back,
+     *  the result of v passed straight to it), -1 if v ends its chain */
+    int[] chains(){
+        int n = dag.vertexCount();
+        int[] chain = new int[n];
+        for(int v = 0; v < n; v++){
+            chain[v] = dag.outDegree(v) == 1 && dag.inDegree(dag.successor(v, 0)) == 1 ? dag.successor(v, 0) : -1;
+            if(cone != null && chain[v] >= 0 && !cone[chain[v]]){
+                chain[v] = -1;
+            }
+        }
+        return chain;
+    }
+
+    /** run the operator of vertex node on the results of its dependencies
+     *
+     * @param node : the vertex to run
+     * @param input : the results of dag.dependency(node, 0 .. inDegree - 1), in that order
+     * @param ready : System.nanoTime() when the last dependency of node finished
+     * @return the result of the operator
+     */
+    Result execute(int node, ArrayList<Result> input, long ready) throws Exception {
+        return trace.execute(this, node, input, ready);
+    }
+
+    /** execute, node being one of a fused chain run on the thread of clock */
+    Result execute(int node, ArrayList<Result> input, long ready, RunTrace.Clock clock) throws Exception {
+        return trace.execute(this, node, input, ready, clock);
+    }
+
+    /** run the operator of vertex node once per input list of inputs, see Engine.execute_batch
+     *
+     * @return the result of every instance, in the order of inputs
+     */
+    ArrayList<Result> execute_batch(int node, ArrayList<ArrayList<Result>> inputs, long ready) throws Exception {
+        return trace.execute_batch(this, node, inputs, ready);
+    }
+
+    /** one call for the whole batch if the operator is a BatchCallable, else one call per instance */
+    ArrayList<Result> call_batch(int node, ArrayList<ArrayList<Result>> inputs) throws Exception {
+        if(memo == null && operators[node].code instanceof BatchCallable){
+            return operators[node].execute_batch(inputs);
+        }
+        ArrayList<Result> ret = new ArrayList<>(inputs.size());
+        for(ArrayList<Result> input : inputs){
+            ret.add(call(node, input));
+        }
+        return ret;
+    }
+
+    /** the operator call itself, memoized if memoization is on */
+    Result call(int node, ArrayList<Result> input) throws Exception {
+        if(memo == null){
+            return operators[node].execute(input);
+        }
+        return memo.execute(operators[node], workflow.operator_hashes.get(node), input, trace, node);
+    }
+}
@@ -0,0 +1,36 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * The records of a stream gathered into one payload: the Result of a
+ * StreamingCallable when it is not streamed, e.g. under execute_workflow,
+ * or when its consumer is an ordinary Callable.
+ * Records should be Serializable so the payload can be memoized.
+ */
+public class Records implements Comparable<Records>, Serializable {
+
+    public final ArrayList<Object> records;
+
+    public Records(ArrayList<Object> records){
+        this.records = records;
+    }
+
+    public int size(){
+        return records.size();
+    }
+
+    public Object get(int i){
+        return records.get(i);
+    }
+
+    /** Result payloads are Comparable; records only order by their count */
+    @Override
+    public int compareTo(Records o) {
+        return Integer.compare(records.size(), o.records.size());
+    }
+
+    @Override
+    public String toString() {
+        return records.toString();
+    }
+}
@@ -1,8 +1,12 @@
+import java.io.Serializable;
 
-public class Result <T extends Comparable<T>>{
+/** Results travel between processes (and to disk) serialized: their payloads should be Serializable */
+public class Result <T extends Comparable<T>> implements Serializable {
 
     public String operatorId;
     public T payload;
+    /** the key of this result in the ResultMemo, null until the memo needed it; not sent along */
+    transient String fingerprint;
 
     public Result(String operatorId, T payload){
         this.operatorId = operatorId;
@@ -16,4 +20,9 @@ public class Result <T extends Comparable<T>>{
     public String getOperatorId() {
         return operatorId;
     }
+
+    /** rough number of heap bytes held by this result: a header plus the payload's estimate */
+    public long sizeof() {
+        return 32 + Util.sizeof(payload);
+    }
 }
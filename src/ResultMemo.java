@@ -0,0 +1,107 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of operator results from earlier runs, for incremental re-execution.
+ *
+ * A result is keyed by the fingerprint of the operator's code hash together with the
+ * keys of its inputs: an input computed or found by the memo carries its own key, so
+ * the payloads are not looked at; any other input (the result of an operator without
+ * inputs, or read back from a checkpoint) is keyed by its serialized payload, once.
+ * When a run reaches an operator whose code and inputs are the same as in an earlier
+ * run, the earlier result is reused and the operator is skipped. If an upstream result
+ * changes, every operator downstream of it sees different keys, so only that cone is
+ * recomputed.
+ *
+ * Operators without inputs read whatever they read from outside the workflow, so
+ * they always run. Results whose inputs are not Serializable are never memoized.
+ */
+public class ResultMemo {
+
+    private final ObjectCache<Result> results;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /** initialize a ResultMemo holding at most capacity results */
+    public ResultMemo(int capacity){
+        results = new ObjectCache<>(capacity);
+    }
+
+    /** the memoized result of operator on input, or the result of running it
+     *
+     * @param trace : told when the operator is skipped, may be null
+     */
+    Result execute(Operator operator, String code_hash, ArrayList<Result> input, RunTrace trace, int node) throws Exception {
+        String fingerprint = fingerprint(code_hash, input);
+        if(fingerprint == null){
+            return operator.execute(input);
+        }
+        Result memoized = results.find(fingerprint, 0);
+        if(memoized != null){
+            hits.incrementAndGet();
+            if(trace != null){
+                trace.reused(node);
+            }
+            /** the same code can be registered under another id */
+            Result ret = new Result(operator.operatorId, memoized.payload);
+            ret.fingerprint = fingerprint;
+            return ret;
+        }
+        misses.incrementAndGet();
+        Result result = operator.execute(input);
+        if(result != null){
+            result.fingerprint = fingerprint;
+        }
+        results.add(fingerprint, 0, result);
+        return result;
+    }
+
+    /** hash of the code and of the key of every input, null if the result can't be memoized */
+    static String fingerprint(String code_hash, ArrayList<Result> input){
+        if(input.isEmpty()){
+            return null;
+        }
+        byte[][] parts = new byte[input.size() + 1][];
+        parts[0] = code_hash.getBytes();
+        for(int i = 0; i < input.size(); i++){
+            String key = key(input.get(i));
+            if(key == null){
+                return null;
+            }
+            parts[i + 1] = key.getBytes();
+        }
+        return Util.sha1(parts);
+    }
+
+    /** the key of result: the one it was computed under, else the hash of its payload,
+     *  kept for its other consumers; null if the payload is not Serializable */
+    private static String key(Result result){
+        if(result == null){
+            return "null";
+        }
+        if(result.fingerprint == null){
+            Object payload = result.payload;
+            if(payload != null && !(payload instanceof Serializable)){
+                return null;
+            }
+            result.fingerprint = Util.sha1(Util.serialize((Serializable) payload));
+        }
+        return result.fingerprint;
+    }
+
+    /** number of operator runs skipped */
+    public long hits(){
+        return hits.get();
+    }
+
+    /** number of memoizable operator runs that had to be executed */
+    public long misses(){
+        return misses.get();
+    }
+
+    /** forget every memoized result */
+    public void flush(){
+        results.flush();
+    }
+}
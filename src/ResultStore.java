@@ -0,0 +1,287 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Results held by one run of a workflow, indexed by vertex.
+ *
+ * Every intermediate Result is reference counted by the out-degree of its vertex:
+ * each dependent releases it once it has consumed it, and after the last one the
+ * slot is cleared so the payload can be collected. Sink results are kept until the
+ * run returns them. Live memory therefore follows the width of the DAG, not its size.
+ *
+ * Results are published to other threads by the executor's own synchronization
+ * (a vertex is only released after its dependencies are stored).
+ *
+ * A store may be given a heap budget. Once the Results it holds exceed it, the ones
+ * needed the furthest in the future (by topological position of their next dependent
+ * still to run, sinks last; the largest first among equals) are serialized to a scratch
+ * file and dropped from the heap, and read back through a memory mapping when a
+ * dependent asks for them. A run can then hold more than the heap, at the cost of the
+ * disk. Such a store is locked as a whole, and must be closed to delete its file.
+ */
+public class ResultStore {
+
+    private final CompiledGraph dag;
+    private final Result[] results;
+    /** number of dependents of each vertex that have not consumed its result yet */
+    private final AtomicIntegerArray consumers;
+    /** null if the run does not account bytes */
+    final RunStats stats;
+    /** estimated size of each result held, null if neither reported nor budgeted */
+    private final long[] sizes;
+    /** bytes of the results held on the heap */
+    private final AtomicLong live_bytes = new AtomicLong();
+
+    /** most bytes of results held on the heap, 0 for no limit */
+    private final long budget;
+    private final File scratch_dir;
+    /** the scratch file, created on the first spill */
+    private File scratch_file;
+    private FileChannel scratch;
+    private long scratch_end;
+    /** spilled[v] = (offset, length) of the serialized result of v in the scratch file */
+    private final long[][] spilled;
+    /** position of every vertex in the topological order, and whether it has a result yet */
+    private final int[] position;
+    private final boolean[] stored;
+    /** the vertices whose result is on the heap and may be spilled; a result that can't be
+     *  serialized is taken out, it stays on the heap */
+    private final BitSet resident;
+    /** the vertices that will run, null for all of them, see restrict */
+    private boolean[] cone;
+
+    /** a store for a run of dag, reporting to stats if it is not null */
+    ResultStore(CompiledGraph dag, RunStats stats){
+        this(dag, stats, 0, null);
+    }
+
+    /** a store holding at most budget bytes of results on the heap (0 for no limit),
+     *  spilling the others to a file in scratch_dir */
+    ResultStore(CompiledGraph dag, RunStats stats, long budget, File scratch_dir){
+        this.dag = dag;
+        this.stats = stats;
+        this.budget = budget;
+        this.scratch_dir = scratch_dir;
+        int n = dag.vertexCount();
+        results = new Result[n];
+        consumers = new AtomicIntegerArray(n);
+        for(int v = 0; v < n; v++){
+            consumers.set(v, dag.outDegree(v));
+        }
+        sizes = stats == null && budget <= 0 ? null : new long[n];
+        spilled = budget > 0 ? new long[n][] : null;
+        position = budget > 0 ? new int[n] : null;
+        stored = budget > 0 ? new boolean[n] : null;
+        resident = budget > 0 ? new BitSet(n) : null;
+        if(budget > 0){
+            for(int i = 0; i < dag.orderLength(); i++){
+                position[dag.order(i)] = i;
+            }
+        }
+    }
+
+    /** only the vertices in cone will run, and the results of targets are asked for at the end:
+     *  count the consumers of every result accordingly. Called before the first put */
+    void restrict(boolean[] cone, int[] targets){
+        this.cone = cone;
+        for(int v = 0; v < cone.length; v++){
+            int in_cone = 0;
+            for(int k = 0; k < dag.outDegree(v); k++){
+                if(cone[dag.successor(v, k)]){
+                    in_cone++;
+                }
+            }
+            consumers.set(v, in_cone);
+        }
+        for(int target : targets){
+            /** never drops to 0, so they are kept for the caller */
+            consumers.incrementAndGet(target);
+        }
+    }
+
+    /** store the result of vertex node */
+    void put(int node, Result result){
+        if(budget <= 0){
+            store(node, result);
+            return;
+        }
+        synchronized (this){
+            store(node, result);
+            stored[node] = true;
+            if(result != null){
+                resident.set(node);
+            }
+            while(live_bytes.get() > budget && spill()){
+                /** until the results held fit again, or none is left to spill */
+            }
+        }
+    }
+
+    private void store(int node, Result result){
+        results[node] = result;
+        if(sizes != null){
+            sizes[node] = result == null ? 0 : result.sizeof();
+            long live = live_bytes.addAndGet(sizes[node]);
+            if(stats != null){
+                synchronized (stats){
+                    stats.peak_live_bytes = Math.max(stats.peak_live_bytes, live);
+                }
+            }
+        }
+    }
+
+    /** the result of vertex node */
+    Result get(int node){
+        if(budget <= 0){
+            return results[node];
+        }
+        synchronized (this){
+            return spilled[node] != null ? read_back(node) : results[node];
+        }
+    }
+
+    /** the results node depends on, in dag.dependency order */
+    ArrayList<Result> inputs(int node){
+        ArrayList<Result> input = new ArrayList<>(dag.inDegree(node));
+        for(int k = 0; k < dag.inDegree(node); k++){
+            input.add(get(dag.dependency(node, k)));
+        }
+        return input;
+    }
+
+    /** node has consumed its inputs: drop every one of them that no other vertex still needs */
+    void release_inputs(int node){
+        for(int k = 0; k < dag.inDegree(node); k++){
+            int dependency = dag.dependency(node, k);
+            if(consumers.decrementAndGet(dependency) == 0){
+                if(budget <= 0){
+                    release(dependency);
+                }else {
+                    synchronized (this){
+                        release(dependency);
+                    }
+                }
+            }
+        }
+    }
+
+    private void release(int node){
+        if(spilled != null && spilled[node] != null){
+            /** its bytes stay in the scratch file until the store is closed */
+            spilled[node] = null;
+            return;
+        }
+        results[node] = null;
+        if(resident != null){
+            resident.clear(node);
+        }
+        if(sizes != null){
+            live_bytes.addAndGet(-sizes[node]);
+        }
+    }
+
+    /** the results of the sink vertices, in topological order */
+    ArrayList<Result> sinks(){
+        ArrayList<Result> ret = new ArrayList<>();
+        for(int i = 0; i < dag.orderLength(); i++){
+            int node = dag.order(i);
+            if(dag.outDegree(node) == 0){
+                ret.add(get(node));
+            }
+        }
+        return ret;
+    }
+
+    /** delete the scratch file, if any */
+    synchronized void close(){
+        if(scratch == null){
+            return;
+        }
+        try {
+            scratch.close();
+        } catch (IOException excp) {
+            /** the file is deleted all the same */
+        }
+        scratch_file.delete();
+        scratch = null;
+    }
+
+    /** topological position of the next vertex that will use the result of node,
+     *  past the end for a sink or a target (only needed once the run is over) */
+    private int next_use(int node){
+        int next = Integer.MAX_VALUE;
+        for(int k = 0; k < dag.outDegree(node); k++){
+            int successor = dag.successor(node, k);
+            if(!stored[successor] && (cone == null || cone[successor])){
+                next = Math.min(next, position[successor]);
+            }
+        }
+        return next;
+    }
+
+    /** write the held result needed the furthest in the future to the scratch file;
+     *  false if there is none */
+    private boolean spill(){
+        int victim = -1;
+        int victim_use = -1;
+        for(int v = resident.nextSetBit(0); v >= 0; v = resident.nextSetBit(v + 1)){
+            int use = next_use(v);
+            if(use > victim_use || (use == victim_use && sizes[v] > sizes[victim])){
+                victim = v;
+                victim_use = use;
+            }
+        }
+        if(victim < 0){
+            return false;
+        }
+        byte[] data;
+        try {
+            data = Util.serialize(results[victim]);
+        } catch (IllegalArgumentException excp) {
+            /** not Serializable: it stays on the heap, over budget, and another one is picked */
+            resident.clear(victim);
+            return true;
+        }
+        try {
+            if(scratch == null){
+                scratch_dir.mkdirs();
+                scratch_file = File.createTempFile("results", ".spill", scratch_dir);
+                scratch_file.deleteOnExit();
+                scratch = FileChannel.open(scratch_file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            long offset = scratch_end;
+            while(buffer.hasRemaining()){
+                scratch_end += scratch.write(buffer, scratch_end);
+            }
+            spilled[victim] = new long[]{offset, data.length};
+        } catch (IOException excp) {
+            throw new IllegalStateException("could not spill a result: " + excp.getMessage());
+        }
+        results[victim] = null;
+        resident.clear(victim);
+        live_bytes.addAndGet(-sizes[victim]);
+        if(stats != null){
+            stats.spills++;
+            stats.spilled_bytes += data.length;
+        }
+        return true;
+    }
+
+    /** deserialize the spilled result of node straight from a mapping of the scratch file */
+    private Result read_back(int node){
+        try {
+            ByteBuffer mapped = scratch.map(FileChannel.MapMode.READ_ONLY, spilled[node][0], spilled[node][1]);
+            return Util.decode(mapped, Result.class);
+        } catch (IOException excp) {
+            throw new IllegalStateException("could not read a spilled result: " + excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Receives the events of workflow runs, register one with Engine.add_listener.
+ *
+ * Callbacks are made on the thread doing the work, possibly many at once,
+ * so an implementation must be thread-safe and should return quickly.
+ * Every method does nothing by default; override the ones of interest.
+ * Times are in nanoseconds.
+ */
+public interface RunListener {
+
+    /** a run of workflowId starts */
+    default void run_started(String workflowId) {
+    }
+
+    /** id was looked up in a cache tier ("object" or "bytes") */
+    default void cache_lookup(String id, String tier, boolean hit) {
+    }
+
+    /** bytes of id were read from disk, from its own file or a bundle */
+    default void disk_read(String id, long bytes) {
+    }
+
+    /** id was deserialized */
+    default void deserialized(String id, long nanos) {
+    }
+
+    /** the workflow or operator id does not exist */
+    default void not_found(String id) {
+    }
+
+    /** checkpoints are on but another run holds the log of workflowId: this run goes without */
+    default void checkpoint_unavailable(String workflowId) {
+    }
+
+    /** the checkpoint log of workflowId could not be written: a run resuming from it redoes more */
+    default void checkpoint_failed(String workflowId, Throwable failure) {
+    }
+
+    /** an operator of the run finished
+     *
+     * @param queue_wait : time between its dependencies finishing and the operator starting
+     * @param wall : elapsed time of the operator
+     * @param cpu : CPU time of the operator's thread, -1 if not measured
+     */
+    default void operator_finished(String workflowId, String operatorId, long queue_wait, long wall, long cpu) {
+    }
+
+    /** the run finished, stats holds its figures; failure is null if it succeeded */
+    default void run_finished(String workflowId, RunStats stats, Throwable failure) {
+    }
+}
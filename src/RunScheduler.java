@@ -0,0 +1,211 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admits workflow runs of an Engine with bounded concurrency.
+ *
+ * At most max_runs runs execute at once, and at most per_workflow_runs of them
+ * belong to the same workflow. Runs over those limits wait in one FIFO queue of
+ * queue_capacity runs. Once the queue is full, the Policy decides what happens to
+ * the next submission. The operators of every run share the one workers pool,
+ * so a traffic spike queues up instead of spawning more threads.
+ */
+public class RunScheduler {
+
+    /** what submit does when the queue is full */
+    public enum Policy {
+        /** throw RejectedExecutionException */
+        ABORT,
+        /** wait until the queue has room */
+        BLOCK,
+        /** execute the run on the submitting thread */
+        CALLER_RUNS
+    }
+
+    private final Engine engine;
+    private final ExecutorService workers;
+    private final ExecutorService runners;
+    public final int max_runs;
+    public final int per_workflow_runs;
+    public final int queue_capacity;
+    public final Policy policy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition not_full = lock.newCondition();
+    /** runs admitted but not started, oldest first */
+    private final LinkedList<Run> queue = new LinkedList<>();
+    /** Dictionary {workflowId : number of its runs executing} */
+    private final HashMap<String, Integer> active_per_workflow = new HashMap<>();
+    private int active;
+    /** shutdown was called: no more submissions, the runners stop once idle */
+    private boolean shut_down;
+
+    /**
+     * @param engine : the engine whose workflows are executed
+     * @param workers : the pool shared by the operators of every run
+     * @param max_runs : global limit of runs executing at once
+     * @param per_workflow_runs : limit of runs of the same workflow executing at once
+     * @param queue_capacity : number of runs that can wait for a slot
+     * @param policy : what to do with a submission when the queue is full
+     */
+    public RunScheduler(Engine engine, ExecutorService workers, int max_runs,
+                        int per_workflow_runs, int queue_capacity, Policy policy){
+        if(max_runs < 1 || per_workflow_runs < 1 || queue_capacity < 1){
+            throw new IllegalArgumentException("limits must be positive");
+        }
+        this.engine = engine;
+        this.workers = workers;
+        this.max_runs = max_runs;
+        this.per_workflow_runs = per_workflow_runs;
+        this.queue_capacity = queue_capacity;
+        this.policy = policy;
+        this.runners = Executors.newFixedThreadPool(max_runs);
+    }
+
+    /** submit a run of the workflow
+     *
+     * @param workflowId : the ID of the workflow to be executed
+     * @return a future completed with the sink results, like execute_workflow
+     * @throws RejectedExecutionException if the queue is full and the policy is ABORT,
+     *  or the scheduler is shut down
+     */
+    public CompletableFuture<ArrayList<Result>> submit(String workflowId) throws InterruptedException {
+        Run run = new Run(workflowId);
+        lock.lock();
+        try {
+            while(true){
+                if(shut_down){
+                    throw new RejectedExecutionException("run scheduler is shut down");
+                }
+                if(queue.size() < queue_capacity){
+                    break;
+                }
+                if(policy == Policy.ABORT){
+                    throw new RejectedExecutionException("run queue is full");
+                }
+                if(policy == Policy.CALLER_RUNS){
+                    break;
+                }
+                not_full.await();
+            }
+            if(queue.size() < queue_capacity){
+                queue.add(run);
+                dispatch();
+                return run.future;
+            }
+        } finally {
+            lock.unlock();
+        }
+        /** CALLER_RUNS: the submitter pays for the run itself, outside of the limits */
+        run.execute();
+        return run.future;
+    }
+
+    /** number of runs waiting for a slot */
+    public int queued(){
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** stop accepting runs; the ones submitted so far, queued or not, still complete */
+    public void shutdown(){
+        lock.lock();
+        try {
+            shut_down = true;
+            /** submitters blocked on a full queue are rejected */
+            not_full.signalAll();
+            stop_if_idle();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** once shut down, the runners go away with the last run. Holds lock */
+    private void stop_if_idle(){
+        if(shut_down && queue.isEmpty() && active == 0){
+            runners.shutdown();
+        }
+    }
+
+    /** start every queued run that fits in the limits, oldest first. Holds lock */
+    private void dispatch(){
+        Iterator<Run> pending = queue.iterator();
+        while(active < max_runs && pending.hasNext()){
+            Run run = pending.next();
+            int running = active_per_workflow.getOrDefault(run.workflowId, 0);
+            if(running >= per_workflow_runs){
+                continue;
+            }
+            pending.remove();
+            active++;
+            active_per_workflow.put(run.workflowId, running + 1);
+            not_full.signal();
+            try {
+                runners.execute(() -> {
+                    try {
+                        run.execute();
+                    } finally {
+                        finished(run);
+                    }
+                });
+            } catch (RejectedExecutionException excp) {
+                /** the run never started: give its slots back and fail it */
+                release(run);
+                run.future.completeExceptionally(excp);
+            }
+        }
+    }
+
+    /** give back the slots of a run. Holds lock */
+    private void release(Run run){
+        active--;
+        int running = active_per_workflow.get(run.workflowId) - 1;
+        if(running == 0){
+            active_per_workflow.remove(run.workflowId);
+        }else {
+            active_per_workflow.put(run.workflowId, running);
+        }
+    }
+
+    /** release the slots of a run and start whatever was waiting for them */
+    private void finished(Run run){
+        lock.lock();
+        try {
+            release(run);
+            dispatch();
+            stop_if_idle();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** one submitted run and the future its caller waits on */
+    private class Run {
+        final String workflowId;
+        final CompletableFuture<ArrayList<Result>> future = new CompletableFuture<>();
+
+        Run(String workflowId){
+            this.workflowId = workflowId;
+        }
+
+        void execute(){
+            try {
+                future.complete(engine.execute_workflow(workflowId, workers));
+            } catch (Throwable excp) {
+                future.completeExceptionally(excp);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+import java.util.ArrayList;
+
+/**
+ * Figures about one execution of a workflow, filled in by the executor when the
+ * caller passes a RunStats to execute_workflow, and handed to every RunListener
+ * when the run finishes. Times are in nanoseconds.
+ */
+public class RunStats {
+
+    public String workflowId;
+    /** operators.get(node) = the id of the operator of vertex node */
+    public ArrayList<String> operators;
+    /** per vertex: elapsed time, CPU time (-1 if not measured) and time spent
+     *  ready but waiting for a thread; 0 for vertices that did not run.
+     *  A batch sums them over its instances */
+    public long[] operator_wall_nanos;
+    public long[] operator_cpu_nanos;
+    public long[] queue_wait_nanos;
+
+    /** elapsed time of the whole run, loading included */
+    public long wall_nanos;
+    /** longest chain of dependent operators, by their elapsed times */
+    public long critical_path_nanos;
+
+    /** lookups of the workflow and its operators answered by a cache tier, and the others */
+    public long cache_hits;
+    public long cache_misses;
+    /** time spent deserializing the workflow and operators */
+    public long deserialize_nanos;
+    /** bytes read from disk to load the workflow and operators */
+    public long bytes_read;
+
+    /** most bytes of Results held by the run at any one time, estimated with Result.sizeof.
+     *  Only measured when the caller asked for the RunStats */
+    public volatile long peak_live_bytes;
+
+    /** Results the run moved from the heap to a scratch file to stay within its budget,
+     *  and their serialized bytes, see Engine.result_budget */
+    public long spills;
+    public long spilled_bytes;
+
+    /** operators not run because a checkpoint of an earlier run had their result, see Engine.checkpoint */
+    public long operators_resumed;
+
+    @Override
+    public String toString() {
+        return workflowId + ": wall = " + wall_nanos / 1000 + "us, critical path = "
+                + critical_path_nanos / 1000 + "us, cache hits/misses = " + cache_hits + "/" + cache_misses
+                + ", deserialization = " + deserialize_nanos / 1000 + "us, bytes read = " + bytes_read
+                + ", peak live bytes = " + peak_live_bytes + ", spills = " + spills + " (" + spilled_bytes + " bytes)"
+                + ", operators resumed = " + operators_resumed;
+    }
+}
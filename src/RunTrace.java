@@ -0,0 +1,193 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+
+/**
+ * The telemetry of one run: fills in the run's RunStats and forwards every
+ * event to the engine's listeners (EngineMetrics being one of them).
+ */
+class RunTrace {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported();
+
+    final RunStats stats;
+    /** whether the caller asked for the stats, only then are result sizes estimated */
+    final boolean requested;
+    private final RunListener[] listeners;
+    /** fed with the time of every operator call, null if not kept */
+    private final OperatorHistory history;
+    private ArrayList<String> hashes;
+    /** number of calls of each vertex answered by the ResultMemo, their times say nothing of the operator */
+    private int[] reused;
+    private final long started = System.nanoTime();
+
+    RunTrace(String workflowId, RunStats stats, RunListener[] listeners, OperatorHistory history){
+        this.requested = stats != null;
+        this.stats = stats == null ? new RunStats() : stats;
+        this.stats.workflowId = workflowId;
+        this.listeners = listeners;
+        this.history = history;
+        for(RunListener listener : listeners){
+            listener.run_started(workflowId);
+        }
+    }
+
+    /** a lookup that misses the object tier goes on to the bytes tier,
+     *  so only a miss of the last tier counts as a cache miss */
+    void cache_lookup(String id, String tier, boolean hit){
+        if(hit){
+            stats.cache_hits++;
+        }else if("bytes".equals(tier)){
+            stats.cache_misses++;
+        }
+        for(RunListener listener : listeners){
+            listener.cache_lookup(id, tier, hit);
+        }
+    }
+
+    void disk_read(String id, long bytes){
+        stats.bytes_read += bytes;
+        for(RunListener listener : listeners){
+            listener.disk_read(id, bytes);
+        }
+    }
+
+    void deserialized(String id, long nanos){
+        stats.deserialize_nanos += nanos;
+        for(RunListener listener : listeners){
+            listener.deserialized(id, nanos);
+        }
+    }
+
+    void not_found(String id){
+        for(RunListener listener : listeners){
+            listener.not_found(id);
+        }
+    }
+
+    void checkpoint_unavailable(){
+        for(RunListener listener : listeners){
+            listener.checkpoint_unavailable(stats.workflowId);
+        }
+    }
+
+    void checkpoint_failed(Throwable failure){
+        for(RunListener listener : listeners){
+            listener.checkpoint_failed(stats.workflowId, failure);
+        }
+    }
+
+    /** the workflow is loaded, size the per-vertex figures */
+    void planned(Workflow wf){
+        int n = wf.workflow_dictionary.size();
+        stats.operators = wf.workflow_dictionary;
+        hashes = wf.operator_hashes;
+        stats.operator_wall_nanos = new long[n];
+        stats.operator_cpu_nanos = new long[n];
+        stats.queue_wait_nanos = new long[n];
+        reused = new int[n];
+    }
+
+    /** the ResultMemo answered a call of vertex node, the operator did not run */
+    void reused(int node){
+        reused[node]++;
+    }
+
+    /** something run in place of vertex node */
+    interface Body<R> {
+        R run() throws Exception;
+    }
+
+    /** the CPU clock of a thread running a fused chain of operators (see Plan.chains):
+     *  the reading that ends one operator starts the next, so it is read once per operator.
+     *  The bookkeeping in between is counted to the next operator */
+    static final class Clock {
+        long cpu = -1;
+    }
+
+    /** run the operator of vertex node and record its times
+     *
+     * @param ready : System.nanoTime() when the vertex became ready to run
+     */
+    Result execute(Plan plan, int node, ArrayList<Result> input, long ready) throws Exception {
+        return timed(node, ready, 1, null, () -> plan.call(node, input));
+    }
+
+    /** execute, the operator being one of a chain run on clock's thread */
+    Result execute(Plan plan, int node, ArrayList<Result> input, long ready, Clock clock) throws Exception {
+        return timed(node, ready, 1, clock, () -> plan.call(node, input));
+    }
+
+    /** run the operator of vertex node once for every instance of a batch,
+     *  the times recorded are those of the whole batch */
+    ArrayList<Result> execute_batch(Plan plan, int node, ArrayList<ArrayList<Result>> inputs, long ready) throws Exception {
+        return timed(node, ready, inputs.size(), null, () -> plan.call_batch(node, inputs));
+    }
+
+    /** run the streaming operator of vertex node and record its times,
+     *  which include the time it spent blocked on its channels */
+    void stream(StreamingCallable code, int node, ArrayList<Channel> inputs, Channel output, long ready) throws Exception {
+        timed(node, ready, 1, null, () -> {
+            code.stream(inputs, output);
+            return null;
+        });
+    }
+
+    /** run body as the operator of vertex node, which handles instances instances in this call
+     *
+     * @param clock : the clock of the chain the operator belongs to, null if none
+     */
+    private <R> R timed(int node, long ready, int instances, Clock clock, Body<R> body) throws Exception {
+        long cpu = !CPU_TIME ? -1 : clock != null && clock.cpu >= 0 ? clock.cpu : THREADS.getCurrentThreadCpuTime();
+        int skipped = reused[node];
+        long start = System.nanoTime();
+        R result = body.run();
+        /** the calls that really ran the operator */
+        int executed = instances - (reused[node] - skipped);
+        long wall = System.nanoTime() - start;
+        if(cpu >= 0){
+            long now = THREADS.getCurrentThreadCpuTime();
+            cpu = now - cpu;
+            if(clock != null){
+                clock.cpu = now;
+            }
+        }
+        long queue_wait = Math.max(0, start - ready);
+        /** summed over the instances of a batch */
+        stats.operator_wall_nanos[node] += wall;
+        stats.operator_cpu_nanos[node] = cpu < 0 ? -1 : stats.operator_cpu_nanos[node] + cpu;
+        stats.queue_wait_nanos[node] += queue_wait;
+        if(history != null && executed > 0){
+            history.record(hashes.get(node), wall / executed);
+        }
+        String operatorId = stats.operators.get(node);
+        for(RunListener listener : listeners){
+            listener.operator_finished(stats.workflowId, operatorId, queue_wait, wall, cpu);
+        }
+        return result;
+    }
+
+    /** the run is over: compute the critical path and tell the listeners */
+    void finished(CompiledGraph dag, Throwable failure){
+        stats.wall_nanos = System.nanoTime() - started;
+        if(dag != null && stats.operator_wall_nanos != null){
+            /** longest path ending at each vertex, in topological order */
+            long[] path = new long[dag.vertexCount()];
+            long longest = 0;
+            for(int i = 0; i < dag.orderLength(); i++){
+                int node = dag.order(i);
+                long before = 0;
+                for(int k = 0; k < dag.inDegree(node); k++){
+                    before = Math.max(before, path[dag.dependency(node, k)]);
+                }
+                path[node] = before + stats.operator_wall_nanos[node];
+                longest = Math.max(longest, path[node]);
+            }
+            stats.critical_path_nanos = longest;
+        }
+        for(RunListener listener : listeners){
+            listener.run_finished(stats.workflowId, stats, failure);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+/**
+ * A payload that knows how many heap bytes it holds. Util.sizeof asks it instead of
+ * estimating, so a big or deep payload can report its size exactly, and cheaply.
+ */
+public interface Sized {
+
+    /** rough number of heap bytes reachable from this object */
+    long sizeof();
+}
@@ -0,0 +1,111 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Segmented LRU: new entries go to a probation segment and move to the protected
+ * segment when they are used again. Victims come from probation first, so entries
+ * used once (a scan) evict each other rather than the entries used repeatedly.
+ * The protected segment holds at most PROTECTED of the budget, its least recently
+ * used entries falling back to probation.
+ *
+ * Also the main space of TinyLfuPolicy.
+ */
+public class SlruPolicy implements EvictionPolicy {
+
+    public static final double PROTECTED = 0.8;
+
+    /** Dictionary {id : size}, least recently used first */
+    private final LinkedHashMap<String, Integer> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Integer> protected_ = new LinkedHashMap<>();
+    private long protected_bytes;
+    private long bytes;
+    private long protected_capacity = Long.MAX_VALUE;
+
+    @Override
+    public String name() {
+        return "slru";
+    }
+
+    @Override
+    public void set_capacity(int capacity) {
+        protected_capacity = (long) (capacity * PROTECTED);
+    }
+
+    @Override
+    public void inserted(String id, int size) {
+        removed(id);
+        probation.put(id, size);
+        bytes += size;
+    }
+
+    @Override
+    public void accessed(String id) {
+        Integer size = probation.remove(id);
+        if(size == null){
+            size = protected_.remove(id);
+            if(size == null){
+                return;
+            }
+            protected_bytes -= size;
+        }
+        protected_.put(id, size);
+        protected_bytes += size;
+        while(protected_bytes > protected_capacity && protected_.size() > 1){
+            Map.Entry<String, Integer> demoted = first(protected_);
+            protected_.remove(demoted.getKey());
+            protected_bytes -= demoted.getValue();
+            probation.put(demoted.getKey(), demoted.getValue());
+        }
+    }
+
+    @Override
+    public void removed(String id) {
+        Integer size = probation.remove(id);
+        if(size == null){
+            size = protected_.remove(id);
+            if(size == null){
+                return;
+            }
+            protected_bytes -= size;
+        }
+        bytes -= size;
+    }
+
+    @Override
+    public String evict() {
+        String victim = peek();
+        if(victim != null){
+            removed(victim);
+        }
+        return victim;
+    }
+
+    /** the entry evict would choose, without evicting it */
+    String peek() {
+        Map.Entry<String, Integer> victim = first(probation.isEmpty() ? protected_ : probation);
+        return victim == null ? null : victim.getKey();
+    }
+
+    /** bytes of the entries held */
+    long bytes() {
+        return bytes;
+    }
+
+    boolean contains(String id) {
+        return probation.containsKey(id) || protected_.containsKey(id);
+    }
+
+    @Override
+    public void clear() {
+        probation.clear();
+        protected_.clear();
+        protected_bytes = 0;
+        bytes = 0;
+    }
+
+    private static Map.Entry<String, Integer> first(LinkedHashMap<String, Integer> segment) {
+        Iterator<Map.Entry<String, Integer>> iter = segment.entrySet().iterator();
+        return iter.hasNext() ? iter.next() : null;
+    }
+}
@@ -0,0 +1,36 @@
+import java.util.ArrayList;
+
+/**
+ * An operator that works on streams of records instead of whole payloads.
+ *
+ * Under Engine.execute_streaming every stage runs on its own thread and the
+ * edges between stages are bounded Channels: a stage starts as soon as its
+ * inputs start producing, and a run holds at most buffer records per edge
+ * however much data flows through it.
+ *
+ * Anywhere else it is called like any Callable: the input payloads are fed to it
+ * as streams (a Records payload record by record, any other payload as a single
+ * record) and its output is gathered into a Records payload.
+ *
+ * A stage that reads several inputs one after the other can stall a diamond
+ * (a producer feeding it both directly and through another stage) once a buffer
+ * fills up: read such inputs alternately, or give the run a larger buffer.
+ */
+public interface StreamingCallable extends Callable<Records> {
+
+    /** read inputs.get(i) (the stream of the i-th dependency) until take returns null,
+     *  put the output records into output. The engine closes output when stream returns */
+    void stream(ArrayList<Channel> inputs, Channel output) throws Exception;
+
+    @Override
+    default Records call(ArrayList<Result> input) throws Exception {
+        ArrayList<Channel> inputs = new ArrayList<>();
+        for(Result r : input){
+            inputs.add(Channel.materialized(r.getPayload()));
+        }
+        Channel output = new Channel(Integer.MAX_VALUE);
+        stream(inputs, output);
+        output.close();
+        return new Records(output.drain());
+    }
+}
@@ -0,0 +1,198 @@
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a workflow as a pipeline: every operator on its own thread, all at once,
+ * with a bounded Channel of buffer records on every edge that has a
+ * StreamingCallable at either end. Stages overlap in time and, between streaming
+ * stages, memory is bounded by the buffers instead of the size of the data.
+ *
+ * Ordinary operators still see whole Results. One that depends on a streaming
+ * stage waits for the whole stream and gets it as a Records payload, so its
+ * input channels are unbounded; its own result is streamed to streaming
+ * consumers record by record. Edges between two ordinary operators pass the Result.
+ *
+ * Every vertex needs a thread while the run lasts, so this is meant for workflows
+ * of tens of stages moving a lot of data, not for very large DAGs.
+ */
+public class StreamingExecutor {
+
+    public final int buffer;
+
+    /** an executor with buffer records of room on every streamed edge */
+    public StreamingExecutor(int buffer){
+        if(buffer < 1){
+            throw new IllegalArgumentException("buffer must be positive");
+        }
+        this.buffer = buffer;
+    }
+
+    /** execute the workflow and return the results of its sink operators,
+     *  a streaming sink's output gathered into a Records payload
+     *
+     * @param plan : the workflow to be executed, with its operators loaded
+     * @return the sink results, in the same topological order execute_workflow uses
+     */
+    public ArrayList<Result> execute(Plan plan) throws Exception {
+        return new Run(plan).execute();
+    }
+
+    /** state of a single execution of a workflow */
+    private class Run {
+        private final Plan plan;
+        private final CompiledGraph dag;
+        private final boolean[] streaming;
+        /** inputs[v][k]: the channel of the edge dependency(v, k) -> v, null between ordinary operators */
+        private final Channel[][] inputs;
+        /** outputs[u]: the channels u writes into, a streaming sink's collector included */
+        private final ArrayList<ArrayList<Channel>> outputs = new ArrayList<>();
+        /** results[v]: the Result of v, for ordinary consumers and for the sinks */
+        private final ArrayList<CompletableFuture<Result>> results = new ArrayList<>();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final Thread[] threads;
+
+        Run(Plan plan){
+            this.plan = plan;
+            this.dag = plan.dag;
+            int n = dag.vertexCount();
+            streaming = new boolean[n];
+            for(int v = 0; v < n; v++){
+                streaming[v] = plan.operators[v].code instanceof StreamingCallable;
+                outputs.add(new ArrayList<>());
+                results.add(new CompletableFuture<>());
+            }
+            inputs = new Channel[n][];
+            for(int v = 0; v < n; v++){
+                inputs[v] = new Channel[dag.inDegree(v)];
+                for(int k = 0; k < dag.inDegree(v); k++){
+                    int u = dag.dependency(v, k);
+                    if(streaming[u] || streaming[v]){
+                        /** an ordinary consumer materializes its inputs anyway: bounding them could only deadlock it */
+                        inputs[v][k] = new Channel(streaming[v] ? buffer : Integer.MAX_VALUE);
+                        outputs.get(u).add(inputs[v][k]);
+                    }
+                }
+                if(streaming[v] && dag.outDegree(v) == 0){
+                    outputs.get(v).add(new Channel(Integer.MAX_VALUE));
+                }
+            }
+            threads = new Thread[n];
+        }
+
+        ArrayList<Result> execute() throws Exception {
+            /** vertices on a cycle never get their inputs, they are not run */
+            for(int i = 0; i < dag.orderLength(); i++){
+                int node = dag.order(i);
+                threads[node] = new Thread(() -> run(node), "stream-" + plan.operators[node].operatorId);
+                threads[node].start();
+            }
+            try {
+                for(Thread thread : threads){
+                    if(thread != null){
+                        thread.join();
+                    }
+                }
+            } catch (InterruptedException excp) {
+                fail(excp);
+                throw excp;
+            }
+            Throwable cause = failure.get();
+            if(cause instanceof Exception){
+                throw (Exception) cause;
+            }else if(cause != null){
+                throw new IllegalStateException(cause);
+            }
+            ArrayList<Result> ret = new ArrayList<>();
+            for(int i = 0; i < dag.orderLength(); i++){
+                int node = dag.order(i);
+                if(dag.outDegree(node) == 0){
+                    ret.add(results.get(node).get());
+                }
+            }
+            return ret;
+        }
+
+        private void run(int node){
+            try {
+                if(streaming[node]){
+                    stream(node);
+                }else {
+                    call(node);
+                }
+            } catch (CancellationException excp) {
+                /** another stage failed first */
+            } catch (Throwable excp) {
+                fail(excp);
+            }
+        }
+
+        /** a streaming stage: channels in, channels out */
+        private void stream(int node) throws Exception {
+            ArrayList<Channel> in = new ArrayList<>(dag.inDegree(node));
+            for(int k = 0; k < dag.inDegree(node); k++){
+                /** an ordinary dependency feeds its channel itself, see call */
+                in.add(inputs[node][k]);
+            }
+            Channel out = output(node);
+            plan.trace.stream((StreamingCallable) plan.operators[node].code, node, in, out, System.nanoTime());
+            out.close();
+            /** the stage may not have read everything, don't let its producers wait for it */
+            for(Channel channel : in){
+                channel.discard();
+            }
+            if(dag.outDegree(node) == 0){
+                results.get(node).complete(new Result(plan.operators[node].operatorId, new Records(outputs.get(node).get(0).drain())));
+            }
+        }
+
+        /** an ordinary operator: whole Results in, one Result out */
+        private void call(int node) throws Exception {
+            ArrayList<Result> input = new ArrayList<>(dag.inDegree(node));
+            for(int k = 0; k < dag.inDegree(node); k++){
+                int dependency = dag.dependency(node, k);
+                if(streaming[dependency]){
+                    input.add(new Result(plan.operators[dependency].operatorId, new Records(inputs[node][k].drain())));
+                }else {
+                    input.add(await(dependency));
+                }
+            }
+            Result result = plan.execute(node, input, System.nanoTime());
+            results.get(node).complete(result);
+            if(!outputs.get(node).isEmpty()){
+                Channel out = output(node);
+                Channel.emit(result.getPayload(), out);
+                out.close();
+            }
+        }
+
+        /** the one channel node writes into, a Tee if it has several consumers */
+        private Channel output(int node){
+            ArrayList<Channel> targets = outputs.get(node);
+            return targets.size() == 1 ? targets.get(0) : new Channel.Tee(targets);
+        }
+
+        private Result await(int node) throws Exception {
+            try {
+                return results.get(node).get();
+            } catch (ExecutionException excp) {
+                throw new CancellationException("the run was aborted");
+            }
+        }
+
+        /** the first failure aborts every channel and every pending result */
+        private void fail(Throwable excp){
+            if(!failure.compareAndSet(null, excp)){
+                return;
+            }
+            for(int v = 0; v < dag.vertexCount(); v++){
+                for(Channel channel : outputs.get(v)){
+                    channel.abort();
+                }
+                results.get(v).completeExceptionally(excp);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * W-TinyLFU: a small LRU window in front of a segmented LRU main space, with a
+ * FrequencySketch deciding what gets from the window into the main space.
+ *
+ * New entries enter the window (WINDOW of the budget), so a burst of new ids
+ * still gets a chance. When one leaves the window it competes with the entry the
+ * main space would evict next, and the one looked up less often recently is
+ * dropped. A scan of cold entries therefore churns through the window and
+ * never displaces the hot operators in the main space.
+ */
+public class TinyLfuPolicy implements EvictionPolicy {
+
+    public static final double WINDOW = 0.01;
+
+    private FrequencySketch sketch = new FrequencySketch(1024);
+    /** Dictionary {id : size}, least recently used first */
+    private final LinkedHashMap<String, Integer> window = new LinkedHashMap<>(16, 0.75f, true);
+    private long window_bytes;
+    private long window_capacity;
+    private final SlruPolicy main = new SlruPolicy();
+    private long main_capacity = Long.MAX_VALUE;
+    private long rejected;
+
+    @Override
+    public String name() {
+        return "tinylfu";
+    }
+
+    @Override
+    public void set_capacity(int capacity) {
+        window_capacity = Math.max(1, (long) (capacity * WINDOW));
+        main_capacity = capacity - window_capacity;
+        main.set_capacity((int) main_capacity);
+        /** about one counter per kilobyte of budget */
+        sketch = new FrequencySketch(Math.min(1 << 22, Math.max(1024, capacity / 1024)));
+    }
+
+    @Override
+    public void inserted(String id, int size) {
+        removed(id);
+        window.put(id, size);
+        window_bytes += size;
+    }
+
+    @Override
+    public void accessed(String id) {
+        sketch.increment(id);
+        if(window.get(id) == null){
+            main.accessed(id);
+        }
+    }
+
+    @Override
+    public void missed(String id) {
+        sketch.increment(id);
+    }
+
+    @Override
+    public void removed(String id) {
+        Integer size = window.remove(id);
+        if(size != null){
+            window_bytes -= size;
+        }else {
+            main.removed(id);
+        }
+    }
+
+    @Override
+    public String evict() {
+        while(window_bytes > window_capacity && !window.isEmpty()){
+            Iterator<Map.Entry<String, Integer>> lru = window.entrySet().iterator();
+            Map.Entry<String, Integer> candidate = lru.next();
+            lru.remove();
+            window_bytes -= candidate.getValue();
+            String id = candidate.getKey();
+            int size = candidate.getValue();
+            if(main.bytes() + size <= main_capacity){
+                main.inserted(id, size);
+                continue;
+            }
+            String victim = main.peek();
+            if(victim != null && sketch.frequency(id) > sketch.frequency(victim)){
+                main.removed(victim);
+                main.inserted(id, size);
+                return victim;
+            }
+            rejected++;
+            return id;
+        }
+        String victim = main.evict();
+        if(victim == null){
+            Iterator<Map.Entry<String, Integer>> lru = window.entrySet().iterator();
+            if(!lru.hasNext()){
+                return null;
+            }
+            Map.Entry<String, Integer> entry = lru.next();
+            lru.remove();
+            window_bytes -= entry.getValue();
+            victim = entry.getKey();
+        }
+        return victim;
+    }
+
+    /** number of entries refused by the admission filter */
+    public long rejected() {
+        return rejected;
+    }
+
+    @Override
+    public void clear() {
+        window.clear();
+        window_bytes = 0;
+        main.clear();
+    }
+}
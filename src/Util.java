@@ -1,15 +1,34 @@
 import java.io.*;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Formatter;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Util {
 
+    /** Dictionary {class : the Codec encode and decode use for its instances};
+     *  any other class goes through Java serialization */
+    private static final ConcurrentHashMap<Class<?>, Codec<?>> codecs = new ConcurrentHashMap<>();
+    static {
+        register_codec(Workflow.class, new WorkflowCodec());
+    }
+
+    /** encode the instances of type with codec from now on */
+    static <T> void register_codec(Class<T> type, Codec<T> codec) {
+        codecs.put(type, codec);
+    }
+
     static void writeContents(File file, Object... contents) {
         /**
          * Write the content into file
@@ -37,6 +56,24 @@ public class Util {
         }
     }
 
+    static byte[] readContents(File file) {
+        /**
+         * Read the whole content of file
+         *  Args:
+         *      file: a File object of location
+         *  Return:
+         *      the bytes in the file
+         */
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
         /**
@@ -47,19 +84,42 @@ public class Util {
          *  Return:
          *      the object read from the file
          */
-        try {
-            ObjectInputStream in =
-                    new ObjectInputStream(new FileInputStream(file));
-            T result = expectedClass.cast(in.readObject());
-            in.close();
-            return result;
-        } catch (IOException | ClassCastException
-                | ClassNotFoundException excp) {
-            throw new IllegalArgumentException(excp.getMessage());
-        }
+        return decode(readContents(file), expectedClass);
     }
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        writeContents(file, encode(obj));
+    }
+
+    static byte[] encode(Serializable obj) {
+        /** encode an object with the codec of its class
+         *  args: anything that is serializable
+         *  return : its codec's encoding, or its Java serialization if it has no codec
+         */
+        Codec codec = codecs.get(obj.getClass());
+        return codec == null ? serialize(obj) : codec.encode(obj);
+    }
+
+    static <T extends Serializable> T decode(byte[] obj, Class<T> expectedClass) {
+        return decode(ByteBuffer.wrap(obj), expectedClass);
+    }
+
+    static <T extends Serializable> T decode(ByteBuffer obj, Class<T> expectedClass) {
+        /** decode what encode produced
+         *  args:
+         *      obj: the bytes of the object, from its position to its limit
+         *      expectedClass: the expected class of the object
+         *  return : the original object, read by the codec of expectedClass if
+         *      the bytes start with its header, by Java serialization otherwise
+         */
+        Codec<?> codec = codecs.get(expectedClass);
+        if (codec != null && codec.recognizes(obj)) {
+            return expectedClass.cast(codec.decode(obj));
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteBufferInputStream(obj))) {
+            return expectedClass.cast(in.readObject());
+        } catch (IOException | ClassCastException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException("Internal error deserializing.");
+        }
     }
 
     static byte[] serialize(Serializable obj) {
@@ -96,6 +156,98 @@ public class Util {
         }
     }
 
+    static long sizeof(Object obj) {
+        /** estimate the heap bytes reachable from an object, without serializing it
+         *  args: any object, usually a Result payload
+         *  return: the estimate: exact for arrays of primitives and strings, what a Sized
+         *      object reports, element by element for collections, maps and arrays,
+         *      and the shallow size of the fields of any other object
+         */
+        if (obj == null) {
+            return 0;
+        } else if (obj instanceof Sized) {
+            return ((Sized) obj).sizeof();
+        } else if (obj instanceof byte[]) {
+            return 16 + ((byte[]) obj).length;
+        } else if (obj instanceof int[]) {
+            return 16 + 4L * ((int[]) obj).length;
+        } else if (obj instanceof long[]) {
+            return 16 + 8L * ((long[]) obj).length;
+        } else if (obj instanceof double[]) {
+            return 16 + 8L * ((double[]) obj).length;
+        } else if (obj instanceof String) {
+            return 40 + ((String) obj).length();
+        } else if (obj instanceof Number || obj instanceof Boolean || obj instanceof Character) {
+            return 16;
+        } else if (obj instanceof Collection) {
+            long size = 32;
+            for (Object element : (Collection<?>) obj) {
+                size += 8 + sizeof(element);
+            }
+            return size;
+        } else if (obj instanceof Map) {
+            long size = 48;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) obj).entrySet()) {
+                size += 32 + sizeof(entry.getKey()) + sizeof(entry.getValue());
+            }
+            return size;
+        } else if (obj instanceof Records) {
+            return 16 + sizeof(((Records) obj).records);
+        } else if (obj instanceof Object[]) {
+            long size = 16;
+            for (Object element : (Object[]) obj) {
+                size += 8 + sizeof(element);
+            }
+            return size;
+        } else if (obj.getClass().isArray()) {
+            /** the other arrays of primitives: boolean, char, short, float */
+            Class<?> component = obj.getClass().getComponentType();
+            long width = component == boolean.class ? 1 : component == float.class ? 4 : 2;
+            return 16 + width * Array.getLength(obj);
+        }
+        return shallow_sizes.get(obj.getClass());
+    }
+
+    /** Dictionary {class : header plus fields of an instance, references counted as 8 bytes} */
+    private static final ClassValue<Long> shallow_sizes = new ClassValue<Long>() {
+        @Override
+        protected Long computeValue(Class<?> type) {
+            long size = 16;
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    Class<?> t = field.getType();
+                    size += t == long.class || t == double.class || !t.isPrimitive() ? 8
+                            : t == int.class || t == float.class ? 4
+                            : t == short.class || t == char.class ? 2 : 1;
+                }
+            }
+            return (size + 7) / 8 * 8;
+        }
+    };
+
+    static String sha1(byte[]... vals) {
+        /** hash the bytes with SHA-1
+         *  args: the byte arrays to hash, in order
+         *  return: the hash as a 40 character hex string
+         */
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            for (byte[] val : vals) {
+                md.update(val);
+            }
+            Formatter result = new Formatter();
+            for (byte b : md.digest()) {
+                result.format("%02x", b);
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
     static File join(File first, String... others) {
         /** join the path with name
          * args:
@@ -106,4 +258,33 @@ public class Util {
         return Paths.get(first.getPath(), others).toFile();
     }
 
+
+    /** InputStream over the remaining bytes of a ByteBuffer, without copying them */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer){
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if(!buffer.hasRemaining()){
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
 }
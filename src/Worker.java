@@ -0,0 +1,152 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Executes partitions of workflows for a Coordinator, in this JVM or in its own:
+ *
+ *   java -cp CLASSPATH Worker PORT
+ *
+ * listens on PORT of the loopback interface (0 picks a free port) and prints
+ * "worker listening on PORT". The classpath must hold the classes of the
+ * operators' code, which arrive serialized.
+ *
+ * Every connection is one run: the worker reads its Task, executes its vertices in
+ * the order given, waits for the results of other partitions as the coordinator
+ * forwards them, and sends back the results other partitions (or the caller) need.
+ */
+public class Worker {
+
+    private final ServerSocket server;
+    private volatile boolean closed;
+
+    /** a worker on port of the loopback interface, 0 for any free port */
+    public Worker(int port) throws IOException {
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    public static void main(String[] args) throws IOException {
+        Worker worker = new Worker(args.length > 0 ? Integer.parseInt(args[0]) : 0);
+        System.out.println("worker listening on " + worker.port());
+        System.out.flush();
+        worker.serve();
+    }
+
+    public int port(){
+        return server.getLocalPort();
+    }
+
+    /** serve on a background thread */
+    public Worker start(){
+        Thread thread = new Thread(this::serve, "worker-" + port());
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    /** accept runs until close, each on its own thread */
+    public void serve(){
+        while(!closed){
+            try {
+                Socket socket = server.accept();
+                Thread run = new Thread(() -> run(socket), "worker-run-" + port());
+                run.setDaemon(true);
+                run.start();
+            } catch (IOException excp) {
+                if(closed){
+                    return;
+                }
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+    }
+
+    /** one run: see Coordinator for the messages */
+    private void run(Socket socket){
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            ObjectOutputStream out = new ObjectOutputStream(s.getOutputStream());
+            out.flush();
+            ObjectInputStream in = new ObjectInputStream(s.getInputStream());
+            Coordinator.Task task = (Coordinator.Task) in.readObject();
+            /** Dictionary {vertex : Result} of every result this partition has seen */
+            HashMap<Integer, Result> results = new HashMap<>();
+            Thread reader = new Thread(() -> receive(in, results), "worker-reader-" + port());
+            reader.setDaemon(true);
+            reader.start();
+            try {
+                for(int i = 0; i < task.vertices.length; i++){
+                    int node = task.vertices[i];
+                    ArrayList<Result> input = new ArrayList<>(task.dependencies[i].length);
+                    for(int dependency : task.dependencies[i]){
+                        input.add(await(results, dependency));
+                    }
+                    Result result = task.operators[i].execute(input);
+                    synchronized (results){
+                        results.put(node, result);
+                    }
+                    if(task.exported[i]){
+                        send(out, new Coordinator.Output(node, result));
+                    }
+                }
+                send(out, new Coordinator.Done());
+            } catch (Exception excp) {
+                send(out, new Coordinator.Failed(excp));
+            }
+        } catch (IOException | ClassNotFoundException excp) {
+            /** the coordinator is gone, so is the run */
+        }
+    }
+
+    /** store the results the coordinator forwards until it closes the connection */
+    private static void receive(ObjectInputStream in, HashMap<Integer, Result> results){
+        try {
+            while(true){
+                Coordinator.Input input = (Coordinator.Input) in.readObject();
+                synchronized (results){
+                    results.put(input.vertex, input.result);
+                    results.notifyAll();
+                }
+            }
+        } catch (EOFException | SocketException excp) {
+            /** closed */
+        } catch (IOException | ClassNotFoundException excp) {
+            /** the run fails on the coordinator's side */
+        } finally {
+            synchronized (results){
+                results.put(-1, null);
+                results.notifyAll();
+            }
+        }
+    }
+
+    private static Result await(HashMap<Integer, Result> results, int vertex) throws InterruptedException, IOException {
+        synchronized (results){
+            while(!results.containsKey(vertex)){
+                if(results.containsKey(-1)){
+                    throw new IOException("connection closed");
+                }
+                results.wait();
+            }
+            return results.get(vertex);
+        }
+    }
+
+    private static void send(ObjectOutputStream out, Object message) throws IOException {
+        out.writeObject(message);
+        /** messages are independent, don't let the stream keep references to them */
+        out.reset();
+        out.flush();
+    }
+}
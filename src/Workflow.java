@@ -6,16 +6,29 @@ public class Workflow implements Serializable{
 
     public String workflowId;
     public ArrayList<String> workflow_dictionary;
+    /** operator_hashes.get(index) = hash the code of operator workflow_dictionary.get(index) is stored under */
+    public ArrayList<String> operator_hashes;
     public Graph dag;
+    /** the execution-ready form of dag, compiled once at registration */
+    public CompiledGraph compiled;
     public boolean status;
 
     public Workflow(String workflowId,
                     ArrayList<String> graph_to_operator,
                     Graph dag){
+        this(workflowId, graph_to_operator, new ArrayList<>(), dag);
+    }
+
+    public Workflow(String workflowId,
+                    ArrayList<String> graph_to_operator,
+                    ArrayList<String> operator_hashes,
+                    Graph dag){
         this.workflowId = workflowId;
         this.workflow_dictionary = graph_to_operator;
+        this.operator_hashes = operator_hashes;
         this.status = false;
         this.dag =dag;
+        this.compiled = dag.compile();
     }
 
 }
@@ -0,0 +1,198 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Compact format of a Workflow:
+ *
+ *   header      'W' 'F' 'C' VERSION
+ *   workflowId  string
+ *   status      byte
+ *   operators   count, then every operator id as a string
+ *   hashes      count of distinct hashes, each as 20 raw bytes,
+ *               then for every vertex the index of its hash
+ *   graph       for every vertex: its out-degree, then its successors in insertion order
+ *
+ * Counts, indexes and vertices are unsigned varints (7 bits a byte, low bits first),
+ * strings a varint length followed by UTF-8 bytes. Identical code shared by many
+ * operators is therefore written once, and a small edge takes 1 or 2 bytes.
+ * The CompiledGraph is not written: it is rebuilt from the graph when decoding.
+ */
+public class WorkflowCodec implements Codec<Workflow> {
+
+    public static final byte VERSION = 1;
+    private static final byte[] MAGIC = {'W', 'F', 'C'};
+
+    @Override
+    public byte[] encode(Workflow wf) {
+        Writer out = new Writer();
+        out.bytes(MAGIC);
+        out.bytes(new byte[]{VERSION});
+        out.string(wf.workflowId);
+        out.bytes(new byte[]{(byte) (wf.status ? 1 : 0)});
+
+        out.varint(wf.workflow_dictionary.size());
+        for(String operator_id : wf.workflow_dictionary){
+            out.string(operator_id);
+        }
+
+        /** intern the hashes: the distinct ones, then an index per vertex */
+        HashMap<String, Integer> interned = new HashMap<>();
+        ArrayList<String> distinct = new ArrayList<>();
+        for(String hash : wf.operator_hashes){
+            if(interned.putIfAbsent(hash, distinct.size()) == null){
+                distinct.add(hash);
+            }
+        }
+        out.varint(distinct.size());
+        for(String hash : distinct){
+            out.bytes(hex_to_bytes(hash));
+        }
+        out.varint(wf.operator_hashes.size());
+        for(String hash : wf.operator_hashes){
+            out.varint(interned.get(hash));
+        }
+
+        Graph dag = wf.dag;
+        out.varint(dag.vertexCount());
+        for(int v = 0; v < dag.vertexCount(); v++){
+            ArrayList<Integer> successors = dag.successors(v);
+            out.varint(successors.size());
+            for(int to : successors){
+                out.varint(to);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public boolean recognizes(ByteBuffer in) {
+        if(in.remaining() < MAGIC.length + 1){
+            return false;
+        }
+        for(int i = 0; i < MAGIC.length; i++){
+            if(in.get(in.position() + i) != MAGIC[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Workflow decode(ByteBuffer in) {
+        in.position(in.position() + MAGIC.length);
+        byte version = in.get();
+        if(version != VERSION){
+            throw new IllegalArgumentException("unsupported workflow format version " + version);
+        }
+        String workflowId = string(in);
+        boolean status = in.get() != 0;
+
+        int n = varint(in);
+        ArrayList<String> dictionary = new ArrayList<>(n);
+        for(int i = 0; i < n; i++){
+            dictionary.add(string(in));
+        }
+
+        int distinct_count = varint(in);
+        String[] distinct = new String[distinct_count];
+        byte[] hash = new byte[20];
+        for(int i = 0; i < distinct_count; i++){
+            in.get(hash);
+            distinct[i] = bytes_to_hex(hash);
+        }
+        int hash_count = varint(in);
+        ArrayList<String> hashes = new ArrayList<>(hash_count);
+        for(int i = 0; i < hash_count; i++){
+            hashes.add(distinct[varint(in)]);
+        }
+
+        Graph dag = new Graph(varint(in));
+        for(int v = 0; v < dag.vertexCount(); v++){
+            int degree = varint(in);
+            for(int k = 0; k < degree; k++){
+                dag.addEdge(v, varint(in));
+            }
+        }
+        Workflow wf = new Workflow(workflowId, dictionary, hashes, dag);
+        wf.status = status;
+        return wf;
+    }
+
+    private static int varint(ByteBuffer in){
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7){
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if(b >= 0){
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    private static String string(ByteBuffer in){
+        byte[] bytes = new byte[varint(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] hex_to_bytes(String hex){
+        if(hex.length() != 40){
+            throw new IllegalArgumentException("not a sha1 hash: " + hex);
+        }
+        byte[] ret = new byte[20];
+        for(int i = 0; i < 20; i++){
+            ret[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return ret;
+    }
+
+    private static String bytes_to_hex(byte[] bytes){
+        char[] ret = new char[2 * bytes.length];
+        for(int i = 0; i < bytes.length; i++){
+            ret[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+            ret[2 * i + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+        }
+        return new String(ret);
+    }
+
+    /** growable byte buffer with the encodings above */
+    private static class Writer {
+        private byte[] buffer = new byte[256];
+        private int size;
+
+        void bytes(byte[] bytes){
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void varint(int value){
+            ensure(5);
+            while((value & ~0x7f) != 0){
+                buffer[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void string(String s){
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length);
+            bytes(bytes);
+        }
+
+        private void ensure(int more){
+            if(size + more > buffer.length){
+                buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, size + more));
+            }
+        }
+
+        byte[] toByteArray(){
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * Persists files on a background thread, for registrations that must not wait for the disk.
+ *
+ * Writes and deletes are queued by file, so a file written many times before the
+ * thread gets to it is written once, with its latest contents. The thread takes
+ * everything queued as one batch: it writes every file to a temporary file next to
+ * it, fsyncs them, renames them over their targets (an atomic replace, a reader
+ * sees the old or the new contents, never a partial file) and fsyncs each directory
+ * once. Until then pending(file) returns what the file is going to hold.
+ *
+ * flush is the durability barrier: it returns once everything queued before the
+ * call is on disk, and throws if a write failed.
+ */
+public class WriteBehind {
+
+    /** the contents of a file being deleted, compared by identity */
+    static final byte[] DELETED = new byte[0];
+
+    /** Dictionary {file : contents to write}, in queueing order; guarded by this like the rest */
+    private LinkedHashMap<File, byte[]> queued = new LinkedHashMap<>();
+    /** the batch the thread is persisting */
+    private LinkedHashMap<File, byte[]> in_flight = new LinkedHashMap<>();
+    /** number of write/delete calls so far, and how many of them are on disk */
+    private long submitted;
+    private long persisted;
+    private long files_written;
+    /** the error of the last failed batch, until a flush reports it */
+    private IOException failure;
+    /** a batch failed: the thread waits for the next flush before trying again */
+    private boolean stalled;
+    private Thread thread;
+
+    /** write contents to file, replacing it */
+    public synchronized void write(File file, byte[] contents){
+        enqueue(file, contents);
+    }
+
+    /** delete file if it exists */
+    public synchronized void delete(File file){
+        enqueue(file, DELETED);
+    }
+
+    private void enqueue(File file, byte[] contents){
+        /** re-inserting moves the file to the end, after whatever it may depend on */
+        queued.remove(file);
+        queued.put(file, contents);
+        submitted++;
+        if(thread == null){
+            thread = new Thread(this::run, "write-behind");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+    }
+
+    /** file is about to be written or deleted directly: drop what is queued for it, waiting
+     *  for it if the thread is persisting it, so that older contents never replace the new ones */
+    public synchronized void cancel(File file) throws InterruptedException {
+        while(in_flight.containsKey(file)){
+            wait();
+        }
+        if(queued.remove(file) != null && queued.isEmpty() && in_flight.isEmpty()){
+            /** nothing left that flush could be waiting for */
+            persisted = submitted;
+            stalled = false;
+            notifyAll();
+        }
+    }
+
+    /** what file will hold once persisted: its contents, DELETED, or null if nothing is pending */
+    public synchronized byte[] pending(File file){
+        byte[] contents = queued.get(file);
+        return contents != null ? contents : in_flight.get(file);
+    }
+
+    /** wait until everything queued before this call is on disk
+     *
+     * @throws IllegalStateException if a write failed since the last flush
+     */
+    public synchronized void flush() throws InterruptedException {
+        long target = submitted;
+        if(stalled && failure == null){
+            stalled = false;
+            notifyAll();
+        }
+        while(persisted < target && failure == null){
+            wait();
+        }
+        if(failure != null){
+            IOException excp = failure;
+            failure = null;
+            throw new IllegalStateException("write-behind failed: " + excp.getMessage(), excp);
+        }
+    }
+
+    /** number of files written or deleted so far, coalesced writes counting once */
+    public synchronized long files_written(){
+        return files_written;
+    }
+
+    private void run(){
+        while(true){
+            long batch_end;
+            synchronized (this){
+                while(queued.isEmpty() || stalled){
+                    try {
+                        wait();
+                    } catch (InterruptedException excp) {
+                        return;
+                    }
+                }
+                in_flight = queued;
+                queued = new LinkedHashMap<>();
+                batch_end = submitted;
+            }
+            IOException error = null;
+            try {
+                persist(in_flight);
+            } catch (IOException excp) {
+                error = excp;
+            }
+            synchronized (this){
+                if(error == null){
+                    files_written += in_flight.size();
+                    /** what was submitted since and isn't queued was cancelled */
+                    persisted = queued.isEmpty() ? submitted : batch_end;
+                }else {
+                    /** requeue the batch, ahead of what came since; a newer write of a file wins */
+                    for(Map.Entry<File, byte[]> entry : queued.entrySet()){
+                        in_flight.remove(entry.getKey());
+                        in_flight.put(entry.getKey(), entry.getValue());
+                    }
+                    queued = in_flight;
+                    failure = error;
+                    stalled = true;
+                }
+                in_flight = new LinkedHashMap<>();
+                notifyAll();
+            }
+        }
+    }
+
+    /** write the batch to temporary files, fsync them, rename them in place, delete, then fsync the directories */
+    private static void persist(Map<File, byte[]> batch) throws IOException {
+        LinkedHashSet<File> directories = new LinkedHashSet<>();
+        LinkedHashMap<File, File> renames = new LinkedHashMap<>();
+        for(Map.Entry<File, byte[]> entry : batch.entrySet()){
+            File file = entry.getKey();
+            directories.add(file.getAbsoluteFile().getParentFile());
+            if(entry.getValue() == DELETED){
+                continue;
+            }
+            File temp;
+            try {
+                /** unique, another engine may be writing the same file from the same root */
+                temp = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(),
+                        "." + file.getName() + ".", ".tmp").toFile();
+            } catch (IOException excp) {
+                discard(renames.keySet());
+                throw excp;
+            }
+            renames.put(temp, file);
+            try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+                ByteBuffer contents = ByteBuffer.wrap(entry.getValue());
+                while(contents.hasRemaining()){
+                    channel.write(contents);
+                }
+                channel.force(true);
+            } catch (IOException excp) {
+                discard(renames.keySet());
+                throw excp;
+            }
+        }
+        try {
+            for(Map.Entry<File, File> rename : renames.entrySet()){
+                Files.move(rename.getKey().toPath(), rename.getValue().toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            discard(renames.keySet());
+            throw excp;
+        }
+        for(Map.Entry<File, byte[]> entry : batch.entrySet()){
+            if(entry.getValue() == DELETED){
+                Files.deleteIfExists(entry.getKey().toPath());
+            }
+        }
+        for(File directory : directories){
+            /** makes the renames and deletes durable; not every platform can open a directory */
+            try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException excp) {
+                /** best effort */
+            }
+        }
+    }
+
+    /** remove the temporary files a failed batch left behind */
+    private static void discard(Iterable<File> temporaries){
+        for(File temp : temporaries){
+            temp.delete();
+        }
+    }
+}